@@ -0,0 +1,338 @@
+package at.hfff.pi;
+
+import static at.hfff.pi.PiHive.LOG;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.LineNumberReader;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import javax.websocket.ClientEndpointConfig;
+import javax.websocket.CloseReason;
+import javax.websocket.ContainerProvider;
+import javax.websocket.DeploymentException;
+import javax.websocket.Endpoint;
+import javax.websocket.EndpointConfig;
+import javax.websocket.MessageHandler;
+import javax.websocket.Session;
+import javax.websocket.WebSocketContainer;
+
+/**
+ * Aggregator mode: subscribes to peer PiHive instances via their /piautomation websocket
+ * and merges their streams into the local history with namespaced sources, e.g. pihive2:WT
+ * Peers are configured by peers.cfg within persistence directory, one per line:
+ * name, ws://pihive2:8080/PiHive/piautomation
+ * (name is used as namespace, aka several local instances may be used for testing).
+ * On first connect live push is subscribed (since -1) and entries newer than the last one in history
+ * are requested page by page (syscmd history &lt;millis&gt; &lt;lines&gt; &lt;cursor&gt;), on reconnect
+ * the missed entries only (since &lt;seq&gt;), but only if the backfill was completed, otherwise
+ * backfill is continued. Lost connections are retried with exponential backoff.
+ * Received values are queued and put into history by mainloop (PEERDATA order).
+ * Sources already namespaced (peer is aggregator itself) are ignored to avoid loops.
+ *
+ * @author horst
+ */
+public class Aggregator {
+
+  static final String PEERS = "peers.cfg";
+  static final char NS = ':';   // namespace separator
+
+  private static final long RETRYMIN = 5000;      // first reconnect delay (ms)
+  private static final long RETRYMAX = 300000;    // max reconnect delay (ms)
+  private static final int BUFSIZE = 4 * 1024 * 1024;  // since replay after a longer outage
+  private static final int PAGE = 20000;          // backfill entries per message (~ 1 MB)
+  private static final int DEDUP = 4096;          // recently received entries kept for duplicate check
+
+  private final List<Peer> peers = new ArrayList<>();
+  private final Queue<StampedNV> inbox = new ConcurrentLinkedQueue<>();
+  private final Runnable listener;   // notified when inbox was empty
+  private final ScheduledExecutorService connector = Executors.newSingleThreadScheduledExecutor((r) -> {
+    Thread t = new Thread(r, "PeerConnector");
+    t.setDaemon(true);
+    return t;
+  });
+  private volatile boolean closed = false;
+
+  /**
+   * @param cfg peers.cfg
+   * @param history to get newest entry of each peer (backfill start)
+   * @param listener notified by receiving thread when new values are queued, e.g. to wake up mainloop
+   * @throws IOException on cfg read failure
+   */
+  public Aggregator(File cfg, History history, Runnable listener) throws IOException {
+    this.listener = listener;
+    try (LineNumberReader lr = new LineNumberReader(new FileReader(cfg))) {
+      String line;
+      while ((line = lr.readLine()) != null) {
+        if (line.startsWith("#") || line.trim().isEmpty())
+          continue;
+        String[] columns = line.split(", ");
+        try {
+          if (columns.length < 2 || columns[0].indexOf(NS) >= 0)
+            throw new URISyntaxException(line, "name, uri expected");
+          peers.add(new Peer(columns[0], new URI(columns[1])));
+        } catch (URISyntaxException ex) {
+          LOG.log(Level.WARNING, "Invalid peer at line {0}: {1}", new Object[]{lr.getLineNumber(), ex.getMessage()});
+        }
+      }
+    }
+    // continue where we stopped
+    synchronized (history) {
+      history.forEach((snv) -> {
+        for (Peer peer : peers) {
+          if (snv.source.startsWith(peer.prefix) && snv.pTime > peer.since)
+            peer.since = snv.pTime;
+        }
+      });
+    }
+    peers.forEach((peer) -> {
+      Metrics.gauge("peer_connected", "peer=\"" + peer.name + "\"", () -> peer.session != null && peer.session.isOpen() ? 1 : 0);
+      connector.execute(peer::connect);
+    });
+  }
+
+  /**
+   * @return received values, to be called by mainloop
+   */
+  public List<StampedNV> drain() {
+    List<StampedNV> received = new ArrayList<>();
+    StampedNV snv;
+    while ((snv = inbox.poll()) != null)
+      received.add(snv);
+    return received;
+  }
+
+  /**
+   * @return peer names
+   */
+  public List<String> getPeers() {
+    List<String> names = new ArrayList<>();
+    peers.forEach((peer) -> names.add(peer.name));
+    return names;
+  }
+
+  public void close() {
+    closed = true;
+    connector.shutdownNow();
+    peers.forEach((peer) -> {
+      try {
+        if (peer.session != null)
+          peer.session.close();
+      } catch (IOException ex) {
+        // ignore
+      }
+    });
+  }
+
+  /**
+   * one peer connection, messages are processed sequentially by container
+   */
+  class Peer extends Endpoint implements MessageHandler.Whole<String> {
+    private final String name;
+    private final String prefix;
+    private final URI uri;
+    private volatile long since = 0;     // newest received entry, backfill start till backfilled
+    private volatile long seq = -1;      // peer sequence number of newest received entry, -1 if unknown
+    private volatile boolean backfilled = false;  // history backfill applied, since and seq valid for resume
+    private long cursor = -1;            // backfill page cursor (peer sequence number)
+    private long newest = 0;             // since and seq of entries received while backfilling
+    private long newestSeq = -1;
+    private long from;                   // since at connect, older replayed entries are duplicates
+    private long retry = RETRYMIN;
+    private volatile Session session;
+    private final SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");  // see StampedNV.SDF
+    private final Metrics.Counter receivedCnt;
+    // received live while backfilling, history pages may contain them too (any number, unlike recent)
+    private final Set<StampedNV> live = new HashSet<>();
+    // recently received, as live messages and backfill may overlap (equal by time and source)
+    private final Map<StampedNV, Boolean> recent = new LinkedHashMap<StampedNV, Boolean>() {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<StampedNV, Boolean> eldest) {
+        return size() > DEDUP;
+      }
+    };
+
+    Peer(String name, URI uri) {
+      this.name = name;
+      this.prefix = name + NS;
+      this.uri = uri;
+      receivedCnt = Metrics.counter("peer_received_total", "peer=\"" + name + "\"");
+    }
+
+    private void connect() {
+      if (closed)
+        return;
+      try {
+        WebSocketContainer container = ContainerProvider.getWebSocketContainer();
+        container.setDefaultMaxTextMessageBufferSize(BUFSIZE);
+        container.connectToServer(this, ClientEndpointConfig.Builder.create().build(), uri);
+      } catch (DeploymentException | IOException | RuntimeException ex) {
+        LOG.log(Level.INFO, "Peer {0} connect failed: {1}, retry in {2} s", new Object[]{name, ex.getMessage(), retry / 1000});
+        reconnect();
+      }
+    }
+
+    private void reconnect() {
+      if (closed)
+        return;
+      connector.schedule(this::connect, retry, TimeUnit.MILLISECONDS);
+      retry = Math.min(retry * 2, RETRYMAX);
+    }
+
+    @Override
+    public void onOpen(Session session, EndpointConfig config) {
+      this.session = session;
+      retry = RETRYMIN;
+      session.setMaxTextMessageBufferSize(BUFSIZE);
+      session.addMessageHandler(this);
+      LOG.log(Level.INFO, "Peer {0} connected, {1} since {2} ({3})"
+        , new Object[]{name, backfilled ? "resume" : "backfill", sdf.format(since), backfilled ? seq : cursor});
+      from = since;
+      try {
+        if (!backfilled) {
+          // subscribe first, history pages and live messages may overlap (dedup)
+          session.getBasicRemote().sendText("since -1");
+          requestPage(session);
+        } else {
+          session.getBasicRemote().sendText("since " + seq);
+        }
+      } catch (IOException ex) {
+        LOG.log(Level.INFO, "Peer {0} backfill request failed: {1}", new Object[]{name, ex.getMessage()});
+      }
+    }
+
+    private void requestPage(Session session) throws IOException {
+      session.getBasicRemote().sendText("syscmd history " + since + ' ' + PAGE + ' ' + cursor);
+    }
+
+    /**
+     * page trailer (see History.page), requests next page or completes backfill
+     * @param columns history, cursor, number of entries
+     */
+    private void paged(Session session, String[] columns) throws IOException {
+      cursor = Long.parseLong(columns[1]);
+      if (Integer.parseInt(columns[2]) >= PAGE) {
+        requestPage(session);
+        return;
+      }
+      // all entries up to cursor received, by pages or live
+      seq = Math.max(cursor, newestSeq);
+      since = Math.max(since, newest);
+      backfilled = true;
+      live.clear();
+      LOG.log(Level.INFO, "Peer {0} backfill done ({1})", new Object[]{name, seq});
+    }
+
+    /**
+     * peer did not replay since seq (restarted or too many entries), backfill by pages since newest received
+     */
+    private void resync(Session session) throws IOException {
+      backfilled = false;
+      cursor = -1;
+      newest = 0;
+      newestSeq = -1;
+      LOG.log(Level.INFO, "Peer {0} resync, backfill since {1}", new Object[]{name, sdf.format(since)});
+      requestPage(session);
+    }
+
+    @Override
+    public void onClose(Session session, CloseReason closeReason) {
+      this.session = null;
+      LOG.log(Level.INFO, "Peer {0} closed: {1}", new Object[]{name, closeReason.getReasonPhrase()});
+      reconnect();
+    }
+
+    @Override
+    public void onError(Session session, Throwable thr) {
+      LOG.log(Level.FINE, "Peer " + name + " error", thr);
+    }
+
+    /**
+     * single value broadcast or snapshot/history page/since reply (lines) or resync, other messages are ignored.
+     * Replayed lines older than since at connect are skipped, e.g. complete replay of a restarted peer.
+     * Till backfill is done since and seq are kept (resume point), newest received is tracked separately
+     * @param msg received
+     */
+    @Override
+    public void onMessage(String msg) {
+      boolean wasEmpty = inbox.isEmpty();
+      boolean replay = msg.indexOf('\n') >= 0;
+      int n = 0;
+      for (String line : msg.split("\n")) {
+        String[] columns = line.split("\t");
+        if (History.RESYNC.equals(line)) {
+          try {
+            resync(session);
+          } catch (IOException ex) {
+            LOG.log(Level.INFO, "Peer {0} backfill request failed: {1}", new Object[]{name, ex.getMessage()});
+          }
+          continue;
+        }
+        if (columns.length == 3 && History.PAGE.equals(columns[0])) {
+          try {
+            paged(session, columns);
+          } catch (IOException | NumberFormatException ex) {
+            LOG.log(Level.INFO, "Peer {0} backfill request failed: {1}", new Object[]{name, ex.getMessage()});
+          }
+          continue;
+        }
+        if (columns.length < 3 || columns[1].indexOf(NS) >= 0)
+          continue;
+        try {
+          long time = sdf.parse(columns[0]).getTime();
+          if (columns.length > 3) {
+            long nr = Long.parseLong(columns[3]);
+            if (nr == 0)
+              continue;   // not a history entry, e.g. hostname of snapshot
+            if (backfilled)
+              seq = Math.max(seq, nr);
+            else
+              newestSeq = Math.max(newestSeq, nr);
+          }
+          if (replay && time < from)
+            continue;
+          Object value;
+          try {
+            value = Double.parseDouble(columns[2]);
+          } catch (NumberFormatException ex) {
+            value = columns[2];
+          }
+          StampedNV snv = new StampedNV(time, (prefix + columns[1]).intern(), value);  // shared like local source names
+          if (!backfilled) {
+            if (columns.length > 3)
+              live.add(snv);
+            else if (live.contains(snv))
+              continue;   // page entry received live already
+          }
+          if (recent.put(snv, Boolean.TRUE) == null) {
+            inbox.add(snv);
+            n++;
+            if (!backfilled)
+              newest = Math.max(newest, time);
+            else if (time > since)
+              since = time;
+          }
+        } catch (ParseException | NumberFormatException ex) {
+          // no value, e.g. command reply
+        }
+      }
+      receivedCnt.add(n);
+      if (n > 0 && wasEmpty)
+        listener.run();
+    }
+  }
+}
@@ -1,23 +1,51 @@
 package at.hfff.pi;
 
 import java.io.Serializable;
+import java.util.concurrent.CompletableFuture;
 
 /**
- * Periodical saving of log data, typically each 3days values of one week 
+ * Periodical saving of log data, typically each 3days values of one week
+ * optionally compressed (4th parameter gorilla, see SeriesCodec), e.g.
+ * syscmd archive 72 168 ftp://../&lt;host&gt;-&lt;date&gt;.phs gorilla
  * @author horst
  */
 public class Archiver extends Poster implements Serializable {
 
-  private static final long serialVersionUID = 2002L; 
- 
+  private static final long serialVersionUID = 2002L;
+
+  static final String COMPRESSED = "gorilla";
+
+  boolean compressed = false;   // false when deserialized from older versions
+
+  @Override
+  public void parametrize(String params) {
+    super.parametrize(params);
+    String[] cmdA = params.split(" ");
+    compressed = cmdA.length > 3 && COMPRESSED.equals(cmdA[3]);
+  }
+
+  @Override
+  public String params() {
+    return compressed ? super.params() + ' ' + COMPRESSED : super.params();
+  }
+
   /**
    * send Log to target
    * @param history
    * @param host
-   * @return false on error or target misses date field 
+   * @return false on error or target misses date field
    */
   public long archive(History history, String host) {
-    post(history.toString(), host);
+    upload(history, host);
     return delay * 3600000;
   }
+
+  /**
+   * @param history
+   * @param host
+   * @return future completed when upload is done
+   */
+  public CompletableFuture<String> upload(History history, String host) {
+    return compressed ? post(history.toBytes(), host) : post(history.toString(), host);
+  }
 }
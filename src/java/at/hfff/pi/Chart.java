@@ -219,9 +219,19 @@ public class Chart {
     }
     
     // setup  for SVG output
+    long start = System.nanoTime();
+    PiEvents.Render event = new PiEvents.Render();
+    event.begin();
     SVGGraphics2D g2 = new SVGGraphics2D(w, h);
     g2.setRenderingHint(JFreeChart.KEY_SUPPRESS_SHADOW_GENERATION, true);
     chart.draw(g2, new Rectangle(0, 0, w, h));
-    return g2.getSVGElement();
+    String svg = g2.getSVGElement();
+    event.width = w;
+    event.height = h;
+    event.length = svg.length();
+    event.commit();
+    Metrics.histogram("chart_render_ms", "", 50, 100, 250, 500, 1000, 2500, 5000, 10000, 30000)
+      .record((System.nanoTime() - start) / 1000000);
+    return svg;
   }
 }
@@ -12,17 +12,21 @@ public class DelayableOrder implements Delayed {
   // constants for timing types
   public static final int PUBLISH = 1;   // publish results
   public static final int ARCHIVE = 1<<2;   // archive results
+  public static final int WSDATA = 1<<3;    // weather station fetch completed (payload station)
+  public static final int PEERDATA = 1<<4;  // values received from peer instances (aggregator mode)
   
   public static final int WSTRIGGER = 1<<5;  // query Open Weather Map for local weather
   
   // currently based on HBDELAY (=1 sec), no need for extra timing
   public static final int W1QUERY = 1<<6;   // Schedule W1Sensors processing
   public static final int HXQUERY = 1<<7;   // trigger weight measurement
+  public static final int STORE = 1<<8;     // write completed days to disk tier
 
   private int type;  // timer type
   private long delay; // in milliseconds from now till expiration
   private boolean canceled = false; // set obsolete (instead of removing from queue)
   private final long start = System.currentTimeMillis();
+  private final Object payload;   // e.g. station to be triggered, null if none
   
   private static final SimpleDateFormat SDF = new SimpleDateFormat("HH:mm:ss.SSS");
   
@@ -40,8 +44,22 @@ public class DelayableOrder implements Delayed {
    * @param delay delay after start
    */
   public DelayableOrder(int type, long delay) {
+    this(type, delay, null);
+  }
+  
+  /**
+   * @param type timer type (bit position)
+   * @param delay delay after start
+   * @param payload order specific, e.g. station
+   */
+  public DelayableOrder(int type, long delay, Object payload) {
     this.type = type;
     this.delay = delay;
+    this.payload = payload;
+  }
+  
+  public Object getPayload() {
+    return payload;
   }
   
   public Integer getType() {
@@ -50,10 +68,14 @@ public class DelayableOrder implements Delayed {
 
   public String getName() {
     switch (type) {
-   
+      case PUBLISH: return "PUBLISH";
+      case ARCHIVE: return "ARCHIVE";
+      case WSDATA: return "WSDATA";
+      case PEERDATA: return "PEERDATA";
       case WSTRIGGER: return "WSTRIGGER";
       case W1QUERY: return "W1QUERY";
       case HXQUERY: return "HXQUERY";
+      case STORE: return "STORE";
       default: return "UNDEFINED";
     }
   }
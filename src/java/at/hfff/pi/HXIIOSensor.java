@@ -0,0 +1,109 @@
+package at.hfff.pi;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.logging.Level;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.logging.Logger;
+
+/**
+ * HX711 read by linux kernel IIO driver (bitbanging in kernel space, no pulse timing problems)
+ * See /boot/overlays/README, e.g. within /boot/config.txt (sck and dout as used by HXSensor)
+ * dtoverlay=hx711,sck-gpios=6,dout-gpios=5   (BCM numbering)
+ * Value is read from /sys/bus/iio/devices/iio:device0/in_voltage0_raw (channel A, gain 128)
+ * as is (the hx711 driver delivers offset binary, scan type u24), signed values are converted
+ * only if the scan type (in_voltage_scan_type or scan_elements/in_voltage0_type) says so, e.g. le:s24/32&gt;&gt;0
+ * Calibration and plausibility check are inherited from HXSensor.
+ * Options (trailing key=value fields in sensors.cfg):
+ *   iio=iio:device0   device directory
+ *   channel=0         0 for A, 1 for B
+ *   samples=n         values per measurement, mean without min/max used
+ * The base directory is a parameter to allow testing against a fake sysfs tree.
+ *
+ * @author horst
+ */
+public class HXIIOSensor extends HXSensor {
+
+  // default sysfs location of iio devices
+  static final File SYSFS = new File("/sys/bus/iio/devices");
+
+  // e.g. le:u24/32>>0, aka endianess, sign, realbits and storagebits
+  private static final Pattern SCANTYPE = Pattern.compile("[bl]e:([su])(\\d+)/.*");
+
+  private final File raw;
+  private final int offset;    // added to signed values to get offset binary
+  private static final Logger LOG = PiHive.LOG;
+
+  public HXIIOSensor(String[] params) {
+    this(params, SYSFS);
+  }
+
+  /**
+   * @param params see Sensor
+   * @param base sysfs directory holding iio devices
+   */
+  public HXIIOSensor(String[] params, File base) {
+    super(params, null);
+    File device = new File(base, getOption("iio", "iio:device0"));
+    int channel = getOption("channel", 0);
+    raw = new File(device, "in_voltage" + channel + "_raw");
+    if (!raw.canRead())
+      LOG.log(Level.WARNING, "{0} not readable, check hx711 overlay", raw);
+    File type = new File(device, "in_voltage_scan_type");
+    if (!type.canRead())
+      type = new File(device, "scan_elements/in_voltage" + channel + "_type");
+    offset = signOffset(type);
+  }
+
+  /**
+   * @param type scan type file
+   * @return 2^(realbits-1) if values are signed, 0 if unsigned or unknown
+   */
+  private static int signOffset(File type) {
+    if (!type.canRead())
+      return 0;
+    try {
+      Matcher m = SCANTYPE.matcher(new String(Files.readAllBytes(type.toPath()), StandardCharsets.US_ASCII).trim());
+      if (m.matches() && "s".equals(m.group(1))) {
+        int bits = Integer.parseInt(m.group(2));
+        if (bits > 0 && bits < 32)
+          return 1 << (bits - 1);
+      }
+    } catch (IOException | NumberFormatException ex) {
+      LOG.log(Level.WARNING, "{0} ignored: {1}", new Object[]{type, ex.getMessage()});
+    }
+    return 0;
+  }
+
+  /**
+   * kernel value is used as is, signed ones (see scan type) are converted to offset binary as shifted in by HXSensor
+   * read blocks till conversion done (max 100 ms at 10 samples/sec)
+   * @param logred failure logging reduction
+   * @return raw count, NaN if no valid value
+   */
+  @Override
+  protected double acquire(int logred) {
+    int[] counts = new int[samples];
+    int n = 0;
+    for (int i = 0; i < samples; i++) {
+      try {
+        counts[n] = Integer.parseInt(new String(Files.readAllBytes(raw.toPath()), StandardCharsets.US_ASCII).trim()) + offset;
+        n++;
+      } catch (IOException | NumberFormatException ex) {
+        // e.g. ETIMEDOUT when dout not ready
+        int fc = addFailure();
+        if (fc % logred == 0)
+          LOG.log(Level.INFO, "{0} read failed: {1}, failCnt={2}", new Object[]{raw, ex.getMessage(), fc});
+      }
+    }
+    return n == 0 ? Double.NaN : trimmedMean(counts, n);
+  }
+
+  @Override
+  public String getType() {
+    return getClass().getName();
+  }
+}
@@ -3,12 +3,21 @@ package at.hfff.pi;
 import com.pi4j.io.gpio.GpioPinDigitalInput;
 import com.pi4j.io.gpio.GpioPinDigitalOutput;
 import com.pi4j.io.gpio.PinState;
+import com.pi4j.io.gpio.event.GpioPinListenerDigital;
 import com.pi4j.wiringpi.Gpio;
-import static java.lang.Thread.sleep;
+import com.pi4j.wiringpi.GpioUtil;
 import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -20,15 +29,67 @@ import java.util.logging.Logger;
  * https://community.hiveeyes.org/t/improving-the-canonical-arduino-hx711-library-for-esp32-and-beyond/539
  * Trying to overcome failing measurements by fault dedection and nice floating mean
  * https://github.com/Poduzov/HX711-Pi4j is a too simple example
+ * Readout is done by one long lived high priority thread fed by a trigger queue,
+ * aka the jit compiled shift loop stays hot on the same thread (common pool on
+ * single core Pi Zero creates a new thread per task)
+ * Readout starts on falling edge of DOut (data ready) instead of fixed delay
+ * Adaptive sampling (option idle=seconds): while weight is flat, measurements are
+ * done every idle seconds only (HX711 powered off in between), on activity (change
+ * of at least delta or low plausibility) each trigger is served for hold seconds
  *
  * @author horst
  */
 public class HXSensor extends Sensor {
 
   private Optional<CompletableFuture<StampedNV>> weightData = Optional.empty();
+  
+  // measurement requests processed by reader thread
+  private static final BlockingQueue<Runnable> TRIGGERS = new LinkedBlockingQueue<>();
+  private static Thread reader;
+  private static volatile boolean warm = false;   // warm-up done by reader thread
+  private static int open = 0;     // sensors sharing the reader thread
+  private boolean closed = false;
+
+  // queued measurement, skipped when its future is cancelled meanwhile
+  private static final class Trigger implements Runnable {
+    private final CompletableFuture<StampedNV> cf;
+    private final Supplier<StampedNV> task;
+
+    private Trigger(CompletableFuture<StampedNV> cf, Supplier<StampedNV> task) {
+      this.cf = cf;
+      this.task = task;
+    }
+
+    @Override
+    public void run() {
+      if (cf.isDone())
+        return;
+      try {
+        cf.complete(task.get());
+      } catch (RuntimeException ex) {
+        cf.completeExceptionally(ex);
+      }
+    }
+  }
 
-  private final GpioPinDigitalOutput pinClk;
-  private final GpioPinDigitalInput pinData;
+  // shift loop pin access
+  interface Pins {
+    void clk(boolean high);
+    /**
+     * dry run for warm-up: same code path, but clock level is kept (no pulses to HX711)
+     * @param dry true to start, false to end
+     */
+    void setDryRun(boolean dry);
+    boolean data();
+    /**
+     * wait for DOut low (data ready)
+     * @param timeout in milliseconds
+     * @return false if still high after timeout
+     * @throws InterruptedException when reader is stopped
+     */
+    boolean awaitLow(long timeout) throws InterruptedException;
+  }
+  private final Pins pins;
 
   // for plausibility check 
   private static final double PFMIN = 0.1; // ignore raw data when plausibility is less than PFMIN
@@ -39,7 +100,7 @@ public class HXSensor extends Sensor {
   // channel A, gain factor 128 : 24
   // channel A, gain factor 64 : 26
   // channel B, gain factor 32 : 25
-  private final int gain = 24;   // ticks for high precission  (HX711 default)
+  private static final int GAIN = 24;   // ticks for high precission  (HX711 default)
 
   // retry limit ( ~1 hour)
   private static final int ERRMAX = 3600;
@@ -49,8 +110,21 @@ public class HXSensor extends Sensor {
 
   // wakeup may take a while (400 ms according sheet) but with 700 not yet low ???
   // aproaching by using multiple shorttime requests leads to less stable results
+  // now used as timeout when waiting for DOut falling edge (data ready)
   private static final long WAITMIN = 800;
   
+  // continuous mode (option samples=n, n > 1): HX711 stays powered, n samples per measurement
+  // 10 samples per second (RATE pin low), aka next one expected within 100 ms
+  private static final long WAITSAMPLE = 150;
+  protected final int samples;
+  private boolean awake = false;   // continuous mode, HX711 powered
+  
+  // adaptive sampling, option idle=seconds (0: measure on each trigger), hold=seconds of burst after activity
+  private final long idle;
+  private final long hold;
+  private long nextStart = 0;               // earliest start of next measurement when idle
+  private volatile long activeUntil = 0;    // burst rate till then
+  
   /**
    * Note: In nonrealtime mode it is not possible to avoid interruptions
    * Here the attempt is made to dedect that by checking reaction.
@@ -71,18 +145,121 @@ public class HXSensor extends Sensor {
   // pihive3 seems to need >= 20, if 15 result is always 0x07fffff
   private static final int PULSEMIN = 20;   
 
+  // JIT warm-up of shift loop using dry run pins, done once when reader thread starts
+  // beyond C2 compile threshold (Tier4CompileThreshold 15000) before stability is checked
+  private static final int WARMMIN = 20000;   // minimum of warm-up shift loops (~ 20 seconds)
+  private static final int WARMMAX = 40000;   // limit of warm-up shift loops
+  private static final int WARMSTABLE = 500;  // consecutive loops within PULSEMAX considered stable
+
   private volatile int failCnt = 0;
-  private final int[] highs = new int[gain];  // record high pulse timing for debug 
-  private final int[] lows = new int[gain];   // record low pulse timing for debug
+  private final int[] highs = new int[GAIN];  // record high pulse timing for debug 
+  private final int[] lows = new int[GAIN];   // record low pulse timing for debug
+  
+  // telemetry, continuous record of pulse timing and failures (instead of FINE logging), see syscmd hxstat
+  private final Histogram highHist;    // high pulse widths µs
+  private final Histogram lowHist;     // low pulse widths µs
+  private final Histogram shiftHist;   // shift duration (critical section) µs
+  private final Histogram readHist;    // acquisition duration ms (including wait for data ready)
+  private final AtomicLong timeErrCnt = new AtomicLong();  // pulse width > PULSEMAX
+  private final AtomicLong startErrCnt = new AtomicLong(); // DOut not low at shift start
+  private final AtomicLong allOnesCnt = new AtomicLong();  // count ending with 0xff
+  private final AtomicLong pfLowCnt = new AtomicLong();    // plausibility < PFMIN
+  private final AtomicLong readErrCnt = new AtomicLong();  // not ready (sleep state/timeout), read failures
   private static final Logger LOG = PiHive.LOG;
 
   public HXSensor(String[] params, GpioPinDigitalOutput clk, GpioPinDigitalInput data) {
+    this(params, new GpioPins(clk, data));
+  }
+  
+  /**
+   * @param params see Sensor
+   * @param pins null if acquisition is not done by bitbanging (overridden acquire())
+   */
+  protected HXSensor(String[] params, Pins pins) {
     super(params);
+    samples = Math.max(1, getOption("samples", 1));
+    idle = Math.max(0, getOption("idle", 0)) * 1000L;
+    hold = Math.max(0, getOption("hold", 60)) * 1000L;
+    String lb = "sensor=\"" + getName() + "\"";
+    highHist = Metrics.histogram("hx_pulse_high_us", lb, 20, 25, 30, 40, 50, 60, 80, 100, 200, 1000);
+    lowHist = Metrics.histogram("hx_pulse_low_us", lb, 20, 25, 30, 40, 50, 60, 80, 100, 200, 1000);
+    shiftHist = Metrics.histogram("hx_shift_us", lb, 1000, 1250, 1500, 2000, 2500, 3000, 5000, 10000, 50000);
+    readHist = Metrics.histogram("hx_read_ms", lb, 1, 10, 50, 100, 200, 400, 600, 800, 1000, 2000);
+    // registry keeps samples of one metric grouped across sensors
+    Metrics.gauge("hx_failures_total", lb + ",type=\"timeErr\"", () -> timeErrCnt.get());
+    Metrics.gauge("hx_failures_total", lb + ",type=\"startErr\"", () -> startErrCnt.get());
+    Metrics.gauge("hx_failures_total", lb + ",type=\"allOnes\"", () -> allOnesCnt.get());
+    Metrics.gauge("hx_failures_total", lb + ",type=\"pfLow\"", () -> pfLowCnt.get());
+    Metrics.gauge("hx_failures_total", lb + ",type=\"readErr\"", () -> readErrCnt.get());
+    Metrics.gauge("hx_fail_count", lb, () -> failCnt);
+    Metrics.gauge("hx_burst", lb, () -> isActive(System.currentTimeMillis()) ? 1 : 0);
     // no special defaults, overridable by sensor persistence, use pihive x put sensors.cfg 
     //super.setCalibration(4.9E-5, 400.0); // experimental from prototype
     //super.setDelta(0.1);  // 100g (just a default, 50 g might be better, change in sensors.cfg
-    this.pinClk = clk;
-    this.pinData = data;
+    this.pins = pins;
+    synchronized (HXSensor.class) {
+      open++;
+    }
+  }
+  
+  /**
+   * Pi4J based pin access, data ready is signaled by falling edge listener registered once,
+   * edge detection is enabled only while waiting, aka no event dispatching during shift
+   */
+  private static class GpioPins implements Pins {
+    private final GpioPinDigitalOutput clk;
+    private final GpioPinDigitalInput data;
+    private final Semaphore ready = new Semaphore(0);
+    private final GpioPinListenerDigital readyListener;
+    private PinState dry = null;    // clock level kept during dry run (reader thread only)
+    private volatile boolean listening = false;   // events of late edges are ignored
+    
+    GpioPins(GpioPinDigitalOutput clk, GpioPinDigitalInput data) {
+      this.clk = clk;
+      this.data = data;
+      readyListener = event -> {
+        if (listening && event.getState() == PinState.LOW)
+          ready.release();
+      };
+      data.addListener(readyListener);
+      edges(false);
+    }
+    
+    // kernel edge detection of DOut, off during shift
+    private void edges(boolean on) {
+      GpioUtil.setEdgeDetection(data.getPin().getAddress(), on ? GpioUtil.EDGE_FALLING : GpioUtil.EDGE_NONE);
+    }
+    
+    @Override
+    public void clk(boolean high) {
+      clk.setState(dry != null ? dry : high ? PinState.HIGH : PinState.LOW);
+    }
+    
+    @Override
+    public void setDryRun(boolean dry) {
+      this.dry = dry ? clk.getState() : null;
+    }
+    
+    @Override
+    public boolean data() {
+      return data.isHigh();
+    }
+    
+    @Override
+    public boolean awaitLow(long timeout) throws InterruptedException {
+      ready.drainPermits();
+      edges(true);
+      listening = true;
+      try {
+        if (data.isLow())
+          return true;
+        ready.tryAcquire(timeout, TimeUnit.MILLISECONDS);
+        return data.isLow();   // timeout fallback: check level anyway
+      } finally {
+        listening = false;
+        edges(false);
+      }
+    }
   }
   
   /**
@@ -104,129 +281,370 @@ public class HXSensor extends Sensor {
         LOG.log(Level.INFO, "Weight restored to {0}", weight);
     }
     
-    weightData = Optional.of(CompletableFuture.supplyAsync(() -> {
-      // will cause java.lang.IllegalThreadStateException
-      //Thread.currentThread().setDaemon(true);  // to allow vm exit even if thread is running
-      
-      // return value, nonnull if ok
-      StampedNV snv = null;
-
-      // reduced logging when not FINE
-      int logred = LOG.isLoggable(Level.FINE) ? 1 : ERRLOG;
-      
-      // assuming sleep state, aka HIGH 
-      if (pinData.isHigh()) {
-        pinClk.setState(PinState.LOW);    // return to normal mode (wakeup)
-
-        Arrays.fill(highs, 0);   // for pulse timing check   
-        Arrays.fill(lows, 0);
-        
-        // last chance of OS to do something else
-        try {
-          sleep(WAITMIN);
-        } catch (InterruptedException ex) {
-          LOG.log(Level.SEVERE, null, ex);
-        }
-        // ======================= start critical section      
-        Thread.currentThread().setPriority(Thread.MAX_PRIORITY);
+    if (weightData.isPresent() && !weightData.get().isDone())
+      return true;    // preceeding measurement still pending
+    
+    long now = System.currentTimeMillis();
+    if (now < nextStart && !isActive(now))
+      return true;    // idle, weight flat
+    nextStart = now + idle;
+    
+    CompletableFuture<StampedNV> cf = new CompletableFuture<>();
+    weightData = Optional.of(cf);
+    startReader();
+    if (pins != null && !warm)
+      TRIGGERS.add(this::warmup);    // before first real readout
+    TRIGGERS.add(new Trigger(cf, this::measure));
+    return true;
+  }
+  
+  /**
+   * reader thread is started once and keeps running till close()
+   * @return true if (re)started
+   */
+  private static synchronized boolean startReader() {
+    if (reader == null || !reader.isAlive()) {
+      reader = new Thread(() -> {
+        // realtime settings once for thread lifetime
         Gpio.piHiPri(49);     // doc: for root users only ?
         //if (Gpio.piHiPri(49) == -1)
         //  LOG.log(Level.WARNING, "Got error {0}", LinuxFile.errno());
         // returns -1 and LinuxFile.errno() says 1  (no priv.)
         // checking code shows that attempt to change to realtime schedling not working for tomcat8 threads
-        
-        int count = 0;
-        boolean timeErr = false;      // timing error
-        boolean startErr = !pinData.isLow();   // DOut should be low here (data ready)");  
-        long ntl, nth = System.nanoTime();
-        for (int i = 0; i < gain; i++) {
-          pinClk.setState(PinState.HIGH);
-          ntl = microwait(nth, PULSEMIN);
-          timeErr |= (highs[i] = (int)(ntl - nth)/1000) > PULSEMAX;  // check limit
-          count *= 2;   //shift (*2)
-          if (pinData.isHigh())
-            count++;          // +1 
-          pinClk.setState(PinState.LOW);
-          nth = microwait(ntl, PULSEMIN);
-          timeErr |= (lows[i] = (int)(nth - ntl)/1000) > PULSEMAX;  // usuall higher
+        try {
+          while (true)
+            TRIGGERS.take().run();
+        } catch (InterruptedException ex) {
+          LOG.log(Level.INFO, "HX reader stopped");
         }
-        /*
-	The HX711 output range is min. 0x800000 and max. 0x7FFFFF (the value rolls over).
-	In order to convert the range to min. 0x000000 and max. 0xFFFFFF,
-	the 24th bit must be changed from 0 to 1 or from 1 to 0.
-	*/
-        count = count ^ 0x800000;
-        
-        // another pulse
-        pinClk.setState(PinState.HIGH);
-        ntl = microwait(nth, PULSEMIN);
-        pinClk.setState(PinState.LOW);
-        microwait(ntl, PULSEMIN);
-        
-        // poweroff (keep high for long time) 
-        pinClk.setState(PinState.HIGH); // The 25th (or 27th) pulse at PD_SCK input will pull DOUT pin back to high        
+      }, "HXReader");
+      reader.setDaemon(true);   // to allow vm exit even if thread is running
+      reader.setPriority(Thread.MAX_PRIORITY);
+      reader.start();
+      return true;
+    }
+    return false;
+  }
+  
+  /**
+   * Run shift loop on dry run pins (clock level unchanged, real data pin read only, as that is harmless)
+   * past the C2 compile threshold and till pulse widths stay within PULSEMAX, aka JIT compiled,
+   * before real readout starts
+   */
+  private void warmup() {
+    if (warm)
+      return;
+    int[] wh = new int[GAIN];
+    int[] wl = new int[GAIN];
+    long start = System.nanoTime();
+    int loops = 0;
+    int stable = 0;
+    pins.setDryRun(true);
+    try {
+      while (loops < WARMMAX && (loops < WARMMIN || stable < WARMSTABLE) && !Thread.currentThread().isInterrupted()) {
+        shift(pins, wh, wl);
+        loops++;
+        stable = Math.max(maxWidth(wh), maxWidth(wl)) > PULSEMAX ? 0 : stable + 1;
+      }
+    } finally {
+      pins.setDryRun(false);
+    }
+    LOG.log(Level.INFO, "HX warm-up {0} after {1} loops, {2} ms"
+      , new Object[]{stable < WARMSTABLE ? "unstable" : "stable", loops, (System.nanoTime() - start) / 1000000});
+    warm = true;
+  }
+  
+  /**
+   * single measurement, executed by reader thread
+   * @return nonnull if ok
+   */
+  private StampedNV measure() {
+    // reduced logging when not FINE
+    int logred = LOG.isLoggable(Level.FINE) ? 1 : ERRLOG;
+    
+    long start = System.nanoTime();
+    double count = acquire(logred);
+    readHist.record((System.nanoTime() - start) / 1000000);
+    StampedNV snv = Double.isNaN(count) ? null : evaluate(count, logred);
+    if (awake && idle > 0 && !isActive(System.currentTimeMillis())) {
+      pins.clk(true);   // poweroff till next idle measurement
+      awake = false;
+    }
+    return snv;
+  }
+  
+  /**
+   * @param now current time millis
+   * @return true when measurements shall be done at burst rate (each trigger)
+   */
+  private boolean isActive(long now) {
+    return idle == 0 || now < activeUntil || Double.isNaN(weight);
+  }
+  
+  /**
+   * get raw value (executed by reader thread), failures shall be counted by addFailure()
+   * @param logred failure logging reduction
+   * @return raw count in range 0 - 0xffffff (offset binary), NaN on failure
+   */
+  protected double acquire(int logred) {
+    return samples > 1 ? sampleContinuous(logred) : sample(logred);
+  }
+  
+  /**
+   * @return failure count including this one
+   */
+  protected int addFailure() {
+    readErrCnt.incrementAndGet();
+    return ++failCnt;
+  }
+  
+  /**
+   * single value, HX711 is waked up and powered off afterwards
+   * @param logred failure logging reduction
+   * @return raw count, NaN on failure
+   */
+  private double sample(int logred) {
+    double raw = Double.NaN;
+    // assuming sleep state, aka HIGH 
+    if (pins.data()) {
+      pins.clk(false);    // return to normal mode (wakeup)
 
-        Gpio.piHiPri(10);    // thread finish will do, nevertheless
-        Thread.currentThread().setPriority(Thread.NORM_PRIORITY);
-        
-        // ======================= end critical section
-        /* timing exceeded is quite normal on nonrealtime. especially during startup
-        * ending with all bits set indicate failure, dont rely on pf, aka avoid to many journal messages
-        */
-        if (timeErr || count > 0xffffff || (count & 0xff) == 0xff) { 
-          // timing exceeded is quite normal on nonrealtime. especially during startup
-          if (++failCnt % logred == 0) {
-            LOG.log(Level.INFO, "count={0} failCnt={1} startErr={2} timeOvr={3}"
-              , new Object[]{Integer.toHexString(count), failCnt, startErr, timeErr});
-            if (timeErr) {
-              LOG.log(Level.INFO, "Highs:{0}", timing(highs));
-              LOG.log(Level.INFO, "Lows: {0}", timing(lows));
-            }
-          }
-        } else {
-          double sv = calibrate((double) count);
-          if (Double.isNaN(weight)) {
-            weight = psv = sv;   // startup, often very faulty value
-          } else {
-            // plausibiltiy factor for floating mean, see e.g. 1/(5x+1) on https://rechneronline.de/funktionsgraphen/
-            double pf = 1.0 / (1.0 + PFSHAPE * Math.abs(sv - psv) / getDelta());
-            weight = pf * sv + (1.0 - pf) * weight;
-            if (pf < PFMIN || logred == 1) {
-              // log when plausibility is very low (bitshift error or huge weight change) or Level.FINE
-              LOG.log(Level.INFO, "count={0} sv={1} psv={2} pf={3} weight={4}"
-                , new Object[]{Integer.toHexString(count), sv, psv, pf, weight});
-              LOG.log(Level.INFO, "Highs:{0}", timing(highs));
-              LOG.log(Level.INFO, "Lows: {0}", timing(lows));
-            }
-            if (pf >= PFMIN) {
-              psv = sv;              
-              snv = new StampedNV(getName(), Math.round(weight * 100) / 100.0);
-              if (failCnt >= logred)   // log when failCnt is high
-                LOG.log(Level.INFO, "Errorcount reset after a serie of {0} faults", failCnt);
-              failCnt = 0;              
-            } else {
-              psv = weight;     // dont store without ignoring "far off" values completly
-            }
-          }
-        }
-      } else {
-        // try again to set into sleep state
-        pinClk.setState(PinState.HIGH);
+      // wait for data ready (falling edge), last chance of OS to do something else
+      awaitReady(WAITMIN);
+      // ======================= start critical section (reader thread runs with high priority)
+      boolean startErr = pins.data();   // DOut should be low here (data ready)");  
+      int count = shiftTraced(startErr);
+      
+      // poweroff (keep high for long time) 
+      pins.clk(true); // The 25th (or 27th) pulse at PD_SCK input will pull DOUT pin back to high        
+
+      // ======================= end critical section
+      if (isValidCount(count, startErr, logred))
+        raw = count;
+    } else {
+      // try again to set into sleep state
+      pins.clk(true);
+      readErrCnt.incrementAndGet();
+      if (++failCnt % logred == 0)
+        LOG.log(Level.INFO, "Unexpected: DOut should be high here (sleep state), failCnt={0}", failCnt);
+    }
+    return raw;
+  }
+  
+  /**
+   * continuous mode, HX711 is kept powered and samples values are read as soon as DOut is low (data ready)
+   * the mean without min and max (if at least 3 valid) is returned
+   * @param logred failure logging reduction
+   * @return raw count (trimmed mean), NaN if no valid sample
+   */
+  private double sampleContinuous(int logred) {
+    long wait = WAITSAMPLE;
+    if (!awake) {
+      pins.clk(false);    // return to normal mode (wakeup)
+      awake = true;
+      wait = WAITMIN;
+    }
+    int[] counts = new int[samples];
+    int n = 0;
+    for (int i = 0; i < samples; i++) {
+      if (!awaitReady(wait)) {
+        readErrCnt.incrementAndGet();
         if (++failCnt % logred == 0)
-          LOG.log(Level.INFO, "Unexpected: DOut should be high here (sleep state), failCnt={0}", failCnt);
+          LOG.log(Level.INFO, "DOut not ready within {0} ms, failCnt={1}", new Object[]{wait, failCnt});
+        break;
       }
-      return snv;
-    }));
+      wait = WAITSAMPLE;
+      // ======================= critical section
+      int count = shiftTraced(false);
+      if (isValidCount(count, false, logred))
+        counts[n++] = count;
+    }
+    return n == 0 ? Double.NaN : trimmedMean(counts, n);
+  }
+  
+  /**
+   * @param counts values, sorted on return
+   * @param n number of valid values in counts
+   * @return mean without min and max (if at least 3 values)
+   */
+  protected static double trimmedMean(int[] counts, int n) {
+    Arrays.sort(counts, 0, n);
+    int from = n > 2 ? 1 : 0;   // drop min and max
+    int to = n > 2 ? n - 1 : n;
+    double sum = 0.0;
+    for (int i = from; i < to; i++)
+      sum += counts[i];
+    return sum / (to - from);
+  }
+  
+  /**
+   * wait for DOut falling edge (data ready)
+   * @param timeout in milliseconds
+   * @return false on timeout or interrupt
+   */
+  private boolean awaitReady(long timeout) {
+    try {
+      return pins.awaitLow(timeout);
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();   // reader stop requested, let reader loop exit
+      return false;
+    }
+  }
+  
+  /**
+   * check pulse timing and count, log failures
+   * @return true if count shall be used
+   */
+  private boolean isValidCount(int count, boolean startErr, int logred) {
+    boolean timeErr = Math.max(maxWidth(highs), maxWidth(lows)) > PULSEMAX;   // timing error
+    highHist.record(highs);
+    lowHist.record(lows);
+    long shift = 0;
+    for (int i = 0; i < GAIN; i++)
+      shift += highs[i] + lows[i];
+    shiftHist.record(shift);
+    if (timeErr)
+      timeErrCnt.incrementAndGet();
+    if (startErr)
+      startErrCnt.incrementAndGet();
+    if (count > 0xffffff || (count & 0xff) == 0xff)
+      allOnesCnt.incrementAndGet();
+    /* timing exceeded is quite normal on nonrealtime. especially during startup
+    * ending with all bits set indicate failure, dont rely on pf, aka avoid to many journal messages
+    */
+    if (timeErr || count > 0xffffff || (count & 0xff) == 0xff) { 
+      // timing exceeded is quite normal on nonrealtime. especially during startup
+      if (++failCnt % logred == 0) {
+        LOG.log(Level.INFO, "count={0} failCnt={1} startErr={2} timeOvr={3}"
+          , new Object[]{Integer.toHexString(count), failCnt, startErr, timeErr});
+        if (timeErr) {
+          LOG.log(Level.INFO, "Highs:{0}", timing(highs));
+          LOG.log(Level.INFO, "Lows: {0}", timing(lows));
+        }
+      }
+      return false;
+    }
     return true;
   }
   
+  /**
+   * calibrate and apply plausibility check
+   * @param count raw value
+   * @param logred failure logging reduction
+   * @return nonnull if plausible
+   */
+  private StampedNV evaluate(double count, int logred) {
+    StampedNV snv = null;
+    double sv = calibrate(count);
+    if (Double.isNaN(weight)) {
+      weight = psv = sv;   // startup, often very faulty value
+    } else {
+      // plausibiltiy factor for floating mean, see e.g. 1/(5x+1) on https://rechneronline.de/funktionsgraphen/
+      double pf = 1.0 / (1.0 + PFSHAPE * Math.abs(sv - psv) / getDelta());
+      weight = pf * sv + (1.0 - pf) * weight;
+      if (idle > 0 && (pf < PFMIN || Math.abs(sv - psv) >= getDelta())) {
+        if (!isActive(System.currentTimeMillis()))
+          LOG.log(Level.FINE, "{0} activity, burst sampling", getName());
+        activeUntil = System.currentTimeMillis() + hold;   // (re)start burst
+      }
+      if (pf < PFMIN || logred == 1) {
+        // log when plausibility is very low (bitshift error or huge weight change) or Level.FINE
+        LOG.log(Level.INFO, "count={0} sv={1} psv={2} pf={3} weight={4}"
+          , new Object[]{Long.toHexString(Math.round(count)), sv, psv, pf, weight});
+        if (pins != null) {
+          LOG.log(Level.INFO, "Highs:{0}", timing(highs));
+          LOG.log(Level.INFO, "Lows: {0}", timing(lows));
+        }
+      }
+      if (pf < PFMIN)
+        pfLowCnt.incrementAndGet();
+      if (pf >= PFMIN) {
+        psv = sv;              
+        snv = new StampedNV(getName(), Math.round(weight * 100) / 100.0);
+        if (failCnt >= logred)   // log when failCnt is high
+          LOG.log(Level.INFO, "Errorcount reset after a serie of {0} faults", failCnt);
+        failCnt = 0;              
+      } else {
+        psv = weight;     // dont store without ignoring "far off" values completly
+      }
+    }
+    return snv;
+  }
+  
+  /**
+   * shift in one value, reported as jfr event (details only evaluated when recorded)
+   * @param startErr DOut not low at start
+   * @return count
+   */
+  private int shiftTraced(boolean startErr) {
+    PiEvents.HXShift event = new PiEvents.HXShift();
+    event.begin();
+    int count = shift(pins, highs, lows);
+    event.end();
+    if (event.shouldCommit()) {
+      event.sensor = getName();
+      event.count = count;
+      event.maxHigh = maxWidth(highs);
+      event.maxLow = maxWidth(lows);
+      event.highs = timing(highs);
+      event.lows = timing(lows);
+      event.startErr = startErr;
+      event.timeErr = Math.max(event.maxHigh, event.maxLow) > PULSEMAX;
+      event.commit();
+    }
+    return count;
+  }
+  
+  /**
+   * shift in one value (critical section)
+   * @param pins clock and data access
+   * @param highs to record high pulse widths (µs)
+   * @param lows to record low pulse widths (µs)
+   * @return count in range 0 - 0xffffff
+   */
+  private static int shift(Pins pins, int[] highs, int[] lows) {
+    int count = 0;
+    long ntl, nth = System.nanoTime();
+    for (int i = 0; i < GAIN; i++) {
+      pins.clk(true);
+      ntl = microwait(nth, PULSEMIN);
+      highs[i] = (int)(ntl - nth)/1000;
+      count *= 2;   //shift (*2)
+      if (pins.data())
+        count++;          // +1 
+      pins.clk(false);
+      nth = microwait(ntl, PULSEMIN);
+      lows[i] = (int)(nth - ntl)/1000;  // usuall higher
+    }
+    /*
+	The HX711 output range is min. 0x800000 and max. 0x7FFFFF (the value rolls over).
+	In order to convert the range to min. 0x000000 and max. 0xFFFFFF,
+	the 24th bit must be changed from 0 to 1 or from 1 to 0.
+	*/
+    count = count ^ 0x800000;
+    
+    // another pulse
+    pins.clk(true);
+    ntl = microwait(nth, PULSEMIN);
+    pins.clk(false);
+    microwait(ntl, PULSEMIN);
+    return count;
+  }
+  
+  private static int maxWidth(int[] times) {
+    int max = 0;
+    for (int t : times)
+      max = Math.max(max, t);
+    return max;
+  }
+  
   /**
    * short inline delay
    * @param st timing start
    * @param ns microseconds to expire
    * @return current nano time
    */
-  private long microwait (long st, int ns) {
+  private static long microwait (long st, int ns) {
     long till = st + ns * 1000;
     long nt;
     while ((nt = System.nanoTime()) < till){}
@@ -246,6 +664,23 @@ public class HXSensor extends Sensor {
     return sb.toString();
   }
 
+  @Override
+  public int getFailCount() {
+    return failCnt;
+  }
+  
+  public void resetStats() {
+    timeErrCnt.set(0);
+    startErrCnt.set(0);
+    allOnesCnt.set(0);
+    pfLowCnt.set(0);
+    readErrCnt.set(0);
+    highHist.reset();
+    lowHist.reset();
+    shiftHist.reset();
+    readHist.reset();
+  }
+
   public boolean hasData() {
     if (weightData.isPresent()) {
       return weightData.get().isDone();
@@ -279,6 +714,34 @@ public class HXSensor extends Sensor {
     return data;
   }
   
+  /**
+   * cancels own pending measurement, reader thread is stopped when last HX sensor is closed
+   */
+  @Override
+  public void close() {
+    weightData.ifPresent((cf) -> cf.cancel(false));
+    weightData = Optional.empty();
+    synchronized (HXSensor.class) {
+      if (!closed) {
+        closed = true;
+        open--;
+      }
+      if (open <= 0) {
+        if (reader != null)
+          reader.interrupt();
+        // requests of other sensors still queued, dont let them wait forever
+        List<Runnable> pending = new ArrayList<>();
+        TRIGGERS.drainTo(pending);
+        pending.stream().filter((r) -> r instanceof Trigger).forEach((r) -> ((Trigger) r).cf.cancel(false));
+        warm = false;
+      }
+    }
+    if (awake) {
+      pins.clk(true);   // poweroff
+      awake = false;
+    }
+  }
+  
   @Override
   public String getType() {
     return getClass().getName();
@@ -0,0 +1,102 @@
+package at.hfff.pi;
+
+import java.util.Arrays;
+
+/**
+ * Fixed bucket histogram, cheap enough to be fed from timing critical threads
+ * Output in plain text exposition format (as used by prometheus) to allow scraping:
+ * name_bucket{le="10"} 3
+ * ...
+ * name_sum 123
+ * name_count 7
+ *
+ * @author horst
+ */
+public class Histogram {
+
+  private final String name;
+  private final String labels;    // e.g. sensor="WT", empty if none
+  private final long[] bounds;    // upper bounds (inclusive), ascending
+  private final long[] counts;    // one more than bounds (overflow, aka +Inf)
+  private long sum = 0;
+  private long max = 0;
+
+  /**
+   * @param name metric name
+   * @param labels comma separated label list without braces, e.g. sensor="WT" or empty
+   * @param bounds upper bucket bounds, ascending
+   */
+  public Histogram(String name, String labels, long... bounds) {
+    this.name = name;
+    this.labels = labels;
+    this.bounds = bounds;
+    counts = new long[bounds.length + 1];
+  }
+
+  public synchronized void record(long value) {
+    int i = 0;
+    while (i < bounds.length && value > bounds[i])
+      i++;
+    counts[i]++;
+    sum += value;
+    if (value > max)
+      max = value;
+  }
+
+  public synchronized void record(int[] values) {
+    for (int value : values)
+      record(value);
+  }
+
+  public synchronized long getCount() {
+    long count = 0;
+    for (long c : counts)
+      count += c;
+    return count;
+  }
+
+  public synchronized long getMax() {
+    return max;
+  }
+
+  public synchronized void reset() {
+    Arrays.fill(counts, 0);
+    sum = 0;
+    max = 0;
+  }
+
+  /**
+   * append cumulative buckets, sum, count and max
+   * @param sb target
+   * @return sb
+   */
+  public synchronized StringBuilder appendTo(StringBuilder sb) {
+    return appendTo(sb, false).append(appendTo(new StringBuilder(), true));
+  }
+
+  /**
+   * @param sb target
+   * @param max true for max (own metric name_max), false for buckets, sum and count
+   * @return sb
+   */
+  public synchronized StringBuilder appendTo(StringBuilder sb, boolean max) {
+    String lb = labels.isEmpty() ? "" : "{" + labels + "}";
+    if (max)
+      return sb.append(name).append("_max").append(lb).append(' ').append(this.max).append('\n');
+    String sep = labels.isEmpty() ? "" : labels + ",";
+    long cum = 0;
+    for (int i = 0; i < counts.length; i++) {
+      cum += counts[i];
+      sb.append(name).append("_bucket{").append(sep).append("le=\"")
+        .append(i < bounds.length ? Long.toString(bounds[i]) : "+Inf").append("\"} ").append(cum).append('\n');
+    }
+    sb.append(name).append("_sum").append(lb).append(' ').append(sum).append('\n');
+    sb.append(name).append("_count").append(lb).append(' ').append(cum).append('\n');
+    return sb;
+  }
+
+  @Override
+  public String toString() {
+    return appendTo(new StringBuilder()).toString();
+  }
+}
@@ -5,10 +5,16 @@ import static at.hfff.pi.PiHive.LOG;
 import at.hfff.pi.ws.PiEndpoint;
 import java.io.PrintWriter;
 import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
+import java.util.stream.Collectors;
 
 /**
  * Undecided if extending ArrayDeque or using local var and delegating
@@ -21,35 +27,274 @@ public class History extends ArrayDeque<StampedNV> {
   private PrintWriter logger;   // autoflush?
  
   protected static final long HSIZE = 7*24*3600*1000;  // history expires after 1 week
+  static final String PAGE = "history";   // first column of page trailer, see page()
+  static final String RESYNC = "resync";  // since reply if not replayed, to be followed by paged backfill
+  static final int REPLAY = 20000;        // max entries replayed by subscribe, larger backfills use pages
+  
+  private final Metrics.Counter added = Metrics.counter("history_added_total", "");
+  private final Metrics.Counter expired = Metrics.counter("history_expired_total", "");
+  private final Metrics.Counter sent = Metrics.counter("ws_messages_sent_total", "");
+  
+  // monotonic sequence number of last added entry, based on start time to stay above numbers of preceeding runs
+  private long seq = System.currentTimeMillis() * 1000;
+  private final long base = seq;          // numbers below are from a preceeding run
+  // last value per source, sent to new clients (snapshot), kept when entry expires
+  private final Map<String, StampedNV> latest = new ConcurrentHashMap<>();
+  
+  // memory budget, exceeding entries are evicted by policy (see setBudget)
+  public enum Policy { OLDEST, DOWNSAMPLE }
+  private static final int ENTRY = 48;    // StampedNV (40) + deque slot, source names are shared
+  private static final int LOGRED = 100;  // log each LOGRED's eviction only
+  private volatile long bytes = 0;        // estimated footprint of entries
+  private long maxBytes = Runtime.getRuntime().maxMemory() / 4;   // 0: unlimited
+  private int maxEntries = 0;             // 0: unlimited
+  private Policy policy = Policy.DOWNSAMPLE;
+  private final Metrics.Counter evicted = Metrics.counter("history_evicted_total", "");
+  private int evictions = 0;
+  // entries are complete from this time on, older ones may be missing (expired, evicted, thinned, not restored)
+  private volatile long complete = Long.MIN_VALUE;
+  private Runnable beforeEvict;   // e.g. store completed days
+  
+  public History() {
+    Metrics.gauge("history_bytes", "", () -> bytes);
+    Metrics.gauge("history_budget_bytes", "", () -> maxBytes);
+  }
   
   public void setLogWriter(PrintWriter logger) {
     this.logger = logger;
   }
   
   /**
-   * 
+   * add in time order, aka slightly older entries (e.g. swinging door) are inserted before newer ones
    * @param he 
    */
   @Override
   public void addLast(StampedNV he) { // add() is equivalent to addLast()
-    // trim to period to keep
+    expire();
+    synchronized (this) {
+      insert(he);
+      if (overBudget(maxBytes, maxEntries))
+        evict();
+    }
+    publish(he);
+  }
+  
+  /**
+   * add entries in time order, e.g. backfill of peers (older than the local entries)
+   * @param snvL new entries, any order, expired ones are ignored
+   */
+  public void merge(List<StampedNV> snvL) {
+    expire();
+    long oldest = System.currentTimeMillis() - HSIZE;
+    List<StampedNV> sorted = snvL.stream().filter((snv) -> snv.pTime >= oldest)
+      .sorted(Comparator.comparingLong((StampedNV snv) -> snv.pTime)).collect(Collectors.toList());
+    if (sorted.isEmpty())
+      return;
+    synchronized (this) {
+      // entries newer than the oldest new one are taken off and merged
+      ArrayDeque<StampedNV> newer = new ArrayDeque<>();
+      while (!isEmpty() && peekLast().pTime > sorted.get(0).pTime)
+        newer.addFirst(pollLast());
+      for (StampedNV he : sorted) {
+        while (!newer.isEmpty() && newer.peekFirst().pTime <= he.pTime)
+          super.addLast(newer.pollFirst());
+        account(he);
+        super.addLast(he);
+      }
+      newer.forEach(super::addLast);
+      if (overBudget(maxBytes, maxEntries))
+        evict();
+    }
+    sorted.forEach(this::publish);
+  }
+  
+  // called with lock held
+  private void insert(StampedNV he) {
+    account(he);
+    if (!isEmpty() && he.pTime < peekLast().pTime) {
+      // few newer entries only, moved behind
+      ArrayDeque<StampedNV> newer = new ArrayDeque<>();
+      while (!isEmpty() && peekLast().pTime > he.pTime)
+        newer.addFirst(pollLast());
+      super.addLast(he);
+      newer.forEach(super::addLast);
+    } else {
+      super.addLast(he);
+    }
+  }
+  
+  // sequence number, footprint and latest value (not replaced by older ones), called with lock held
+  private void account(StampedNV he) {
+    he.seq = ++seq;
+    bytes += footprint(he);
+    latest.merge(he.source, he, (old, snv) -> snv.pTime >= old.pTime ? snv : old);
+  }
+  
+  // data log and clients, done without lock
+  private void publish(StampedNV he) {
+    added.inc();
+    if (logger != null) {
+      logger.println(he);
+    }
+    deliver(he);
+  }
+  
+  // trim to period to keep
+  private void expire() {
     try {
       while (!isEmpty() && System.currentTimeMillis() - ((StampedNV) getFirst()).pTime > HSIZE) {
         synchronized (this) {
-          removeFirst();
+          dropFirst();
         }
+        expired.inc();
       }
     } catch (NoSuchElementException e) {
       LOG.log(Level.INFO, "unexpected", e);
     }
+  }
+  
+  @Override
+  public void clear() {
     synchronized (this) {
-      super.addLast(he);
+      super.clear();
+      bytes = 0;
+      complete = System.currentTimeMillis();
     }
-    if (logger != null) {
-      logger.println(he);
+  }
+  
+  // called with lock held
+  private void dropFirst() {
+    StampedNV snv = removeFirst();
+    bytes -= footprint(snv);
+    if (snv.pTime >= complete)
+      complete = snv.pTime + 1;
+  }
+  
+  /**
+   * @param listener called with lock held before entries are evicted or thinned,
+   * e.g. to save completed days to disk tier
+   */
+  public synchronized void setEvictListener(Runnable listener) {
+    beforeEvict = listener;
+  }
+  
+  /**
+   * @return time from which on no entry was dropped, see SeriesStore
+   */
+  public long getComplete() {
+    return complete;
+  }
+  
+  /**
+   * entries up to given time might be missing, e.g. history restored from a trimmed snapshot
+   * @param till timestamp (milliseconds)
+   */
+  public synchronized void setIncomplete(long till) {
+    if (till >= complete)
+      complete = till + 1;
+  }
+  
+  /**
+   * @param snv entry
+   * @return estimated heap usage (boxed value or string included)
+   */
+  static long footprint(StampedNV snv) {
+    if (snv.value instanceof String)
+      return ENTRY + 40 + ((String) snv.value).length();
+    return ENTRY + 16;
+  }
+  
+  /**
+   * set memory budget, applied immediately
+   * @param maxBytes estimated footprint, 0 for unlimited
+   * @param maxEntries 0 for unlimited
+   * @param policy OLDEST drops oldest entries, DOWNSAMPLE thins out the older half first
+   */
+  public synchronized void setBudget(long maxBytes, int maxEntries, Policy policy) {
+    this.maxBytes = maxBytes;
+    this.maxEntries = maxEntries;
+    this.policy = policy;
+    if (overBudget(maxBytes, maxEntries))
+      evict();
+  }
+  
+  /**
+   * @return budget as used by memory.cfg: bytes, entries, policy
+   */
+  public synchronized String getBudget() {
+    return maxBytes + ", " + maxEntries + ", " + policy.name().toLowerCase();
+  }
+  
+  public long getBytes() {
+    return bytes;
+  }
+  
+  /**
+   * @return current usage, e.g. for syscmd memory
+   */
+  public synchronized String getUsage() {
+    Runtime rt = Runtime.getRuntime();
+    return String.format("History %d entries (max %s), %d kB (budget %s), policy %s, evicted %d, heap %d/%d MB",
+      size(), maxEntries > 0 ? Integer.toString(maxEntries) : "unlimited",
+      bytes / 1024, maxBytes > 0 ? maxBytes / 1024 + " kB" : "unlimited",
+      policy.name().toLowerCase(), evicted.get(),
+      (rt.totalMemory() - rt.freeMemory()) >> 20, rt.maxMemory() >> 20);
+  }
+  
+  private boolean overBudget(long maxBytes, int maxEntries) {
+    return (maxBytes > 0 && bytes > maxBytes) || (maxEntries > 0 && size() > maxEntries);
+  }
+  
+  // down to 90% of budget, aka not on each add, called with lock held
+  private void evict() {
+    long bytesGoal = maxBytes - maxBytes / 10;
+    int entriesGoal = maxEntries - maxEntries / 10;
+    int before = size();
+    if (beforeEvict != null)
+      beforeEvict.run();   // completed days are copied before they get lost
+    if (policy == Policy.DOWNSAMPLE) {
+      for (int pass = 0; pass < 4 && overBudget(bytesGoal, entriesGoal); pass++) {
+        if (thin() == 0)
+          break;
+      }
     }
-    deliver(he);
-
+    while (!isEmpty() && overBudget(bytesGoal, entriesGoal))
+      dropFirst();
+    int n = before - size();
+    evicted.add(n);
+    if (evictions++ % LOGRED == 0)
+      LOG.log(Level.WARNING, "History over budget, {0} entries evicted ({1}), {2}", new Object[]{n, policy, getUsage()});
+  }
+  
+  /**
+   * drop each second entry of the sources with at least average count within the older half,
+   * aka high rate sources (e.g. FType.ANY) are reduced while rare switch events are kept
+   * @return number of entries removed
+   */
+  private int thin() {
+    StampedNV[] all = toArray(new StampedNV[0]);
+    int half = all.length / 2;
+    Map<String, int[]> counts = new HashMap<>();  // count within older half, entries seen
+    for (int i = 0; i < half; i++)
+      counts.computeIfAbsent(all[i].source, (k) -> new int[2])[0]++;
+    double avg = (double) half / Math.max(counts.size(), 1);
+    super.clear();
+    int removed = 0;
+    for (int i = 0; i < all.length; i++) {
+      StampedNV snv = all[i];
+      if (i < half) {
+        int[] c = counts.get(snv.source);
+        if (c[0] >= avg && c[1]++ % 2 == 1) {
+          bytes -= footprint(snv);
+          if (snv.pTime >= complete)
+            complete = snv.pTime + 1;
+          removed++;
+          continue;
+        }
+      }
+      super.addLast(snv);
+    }
+    return removed;
   }
   
   public void close() {
@@ -59,38 +304,156 @@ public class History extends ArrayDeque<StampedNV> {
   
   @Override
   public String toString() {
+    return toString(Long.MIN_VALUE);
+  }
+  
+  /**
+   * @return entries compressed, see SeriesCodec
+   */
+  public byte[] toBytes() {
+    List<StampedNV> snvL;
+    synchronized (this) {
+      snvL = new ArrayList<>(this);
+    }
+    return SeriesCodec.encode(snvL);
+  }
+  
+  /**
+   * @param since timestamp (milliseconds)
+   * @return entries not older than since, one per line
+   */
+  public String toString(long since) {
+    StringBuilder sb = new StringBuilder();
+    synchronized (this) {
+      forEach((snv) -> {
+        if (snv.pTime >= since)
+          sb.append(snv).append('\n');
+      });
+    }
+    return sb.toString();
+  }
+  
+  /**
+   * one page of entries not older than since, for backfills too large for a single message
+   * @param since timestamp (milliseconds)
+   * @param after sequence number returned with preceeding page, negative for first page
+   * @param lines max number of entries
+   * @return entries one per line, followed by line history TAB cursor TAB number of entries,
+   * less than lines entries means done, then cursor is sequence number of last added entry
+   */
+  public String page(long since, long after, int lines) {
     StringBuilder sb = new StringBuilder();
     synchronized (this) {
+      // sequence order, differs from time order when merged (see merge)
+      List<StampedNV> snvL = new ArrayList<>();
       forEach((snv) -> {
-        sb.append(snv).append('\n');
+        if (snv.seq > after && snv.pTime >= since)
+          snvL.add(snv);
       });
+      snvL.sort(Comparator.comparingLong((StampedNV snv) -> snv.seq));
+      int n = Math.min(lines, snvL.size());
+      for (int i = 0; i < n; i++)
+        sb.append(snvL.get(i)).append('\n');
+      long cursor = n < lines ? seq : snvL.get(n - 1).seq;
+      sb.append(PAGE).append('\t').append(cursor).append('\t').append(n);
     }
     return sb.toString();
   }
   
-  // keep references to websocket SendHandler to allow broadcasting of change notifications
-  protected void addClient(String id, PiEndpoint.OutputFeeder receiver) {
-    mailer.put(id, receiver);
+  /**
+   * @param source name
+   * @return last value added for source or null
+   */
+  public StampedNV getLatest(String source) {
+    return latest.get(source);
+  }
+  
+  /**
+   * keep references to websocket SendHandler to allow broadcasting of change notifications,
+   * the client gets the last value of each source first (one message, sorted by source, with sequence numbers)
+   * @param id client id
+   * @param receiver output
+   * @param sb snapshot lines to be sent in advance (e.g. hostname), empty or newline terminated
+   */
+  protected void addClient(String id, PiEndpoint.OutputFeeder receiver, StringBuilder sb) {
+    synchronized (this) {
+      new TreeMap<>(latest).values().forEach((snv) -> sb.append(snv.toString(true)).append('\n'));
+      if (sb.length() > 0) {
+        sb.setLength(sb.length() - 1);
+        receiver.send(sb.toString());
+      }
+      mailer.put(id, new Subscriber(receiver, true, seq));
+    }
+  }
+  
+  /**
+   * replay entries newer than since and switch to live push including sequence numbers,
+   * done while history is locked, aka no entry is lost or sent twice
+   * @param id client id
+   * @param receiver output
+   * @param since sequence number of last entry received, negative for live push only
+   * (unknown numbers, e.g. from preceeding run, or more than REPLAY entries result in RESYNC line instead of replay,
+   * a single message of that size could exceed the client's buffer)
+   */
+  protected void subscribe(String id, PiEndpoint.OutputFeeder receiver, long since) {
+    synchronized (this) {
+      if (since >= 0) {
+        if (since < base || since > seq || seq - since > REPLAY) {
+          receiver.send(RESYNC);
+        } else {
+          StringBuilder sb = new StringBuilder();
+          forEach((snv) -> {
+            if (snv.seq > since)
+              sb.append(snv.toString(true)).append('\n');
+          });
+          if (sb.length() > 0) {
+            sb.setLength(sb.length() - 1);
+            receiver.send(sb.toString());
+          }
+        }
+      }
+      mailer.put(id, new Subscriber(receiver, true, seq));
+    }
   }
 
   protected void removeClient(String id) {
     mailer.remove(id);
   }
 
+  protected int clients() {
+    return mailer.size();
+  }
+
   protected void deliver(StampedNV he) {
     mailer.deliver(he);
   }
 
-  class Mailer extends ConcurrentHashMap<String, PiEndpoint.OutputFeeder> {
+  // websocket client with its delivery options
+  static class Subscriber {
+    final PiEndpoint.OutputFeeder of;
+    final boolean withSeq;    // 4th column sequence number
+    final long after;         // entries up to this sequence number have been replayed
+    
+    Subscriber(PiEndpoint.OutputFeeder of, boolean withSeq, long after) {
+      this.of = of;
+      this.withSeq = withSeq;
+      this.after = after;
+    }
+  }
+  
+  class Mailer extends ConcurrentHashMap<String, Subscriber> {
 
     public void deliver(StampedNV nv) {
       // maximum 2 threads sending?
       forEachEntry(2, (Object t) -> {
         Map.Entry me = (Map.Entry) t;
-        PiEndpoint.OutputFeeder of = (PiEndpoint.OutputFeeder) me.getValue();
-        //TODO: remove entries from Mailer where delivery fails 
-        LOG.log(Level.FINE, "Sending {0} to {1}", new Object[]{nv, me.getKey()});
-        of.send(nv.toString());
+        Subscriber sub = (Subscriber) me.getValue();
+        if (nv.seq > sub.after) {
+          //TODO: remove entries from Mailer where delivery fails 
+          LOG.log(Level.FINE, "Sending {0} to {1}", new Object[]{nv, me.getKey()});
+          sub.of.send(nv.toString(sub.withSeq));
+          sent.inc();
+        }
       });
     }
   }
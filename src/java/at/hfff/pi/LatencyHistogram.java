@@ -0,0 +1,126 @@
+package at.hfff.pi;
+
+import java.util.Arrays;
+
+/**
+ * High dynamic range histogram (HdrHistogram like, log-linear buckets) for durations in µs
+ * Values below 64 are exact, above 32 sub-buckets per power of two keep the
+ * relative error below 3% up to about 38 hours, with a fixed footprint of about 8 kB.
+ * Output as summary with quantiles p50, p90, p99, p99.9 in plain text exposition format.
+ *
+ * @author horst
+ */
+public class LatencyHistogram {
+
+  private static final int SUBBITS = 5;
+  private static final int SUB = 1 << SUBBITS;       // sub-buckets per power of two
+  private static final int MAXBITS = 37;             // values are clamped to 2^37 - 1 µs
+  private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+  private final String name;
+  private final String labels;    // e.g. sensor="WT", empty if none
+  private final long[] counts = new long[(MAXBITS - SUBBITS) * SUB + SUB];
+  private long count = 0;
+  private long sum = 0;
+  private long max = 0;
+
+  /**
+   * @param name metric name
+   * @param labels comma separated label list without braces, e.g. sensor="WT" or empty
+   */
+  public LatencyHistogram(String name, String labels) {
+    this.name = name;
+    this.labels = labels;
+  }
+
+  private static int index(long value) {
+    if (value < 2 * SUB)
+      return (int) value;
+    int shift = 63 - Long.numberOfLeadingZeros(value) - SUBBITS;
+    return (shift + 1) * SUB + (int) (value >> shift) - SUB;
+  }
+
+  // highest value recorded into bucket
+  private static long upper(int index) {
+    if (index < 2 * SUB)
+      return index;
+    int shift = index / SUB - 1;
+    return ((long) (index % SUB + SUB) << shift) + (1L << shift) - 1;
+  }
+
+  /**
+   * @param value in µs, negative values are recorded as 0
+   */
+  public synchronized void record(long value) {
+    value = Math.min(Math.max(value, 0), (1L << MAXBITS) - 1);
+    counts[index(value)]++;
+    count++;
+    sum += value;
+    if (value > max)
+      max = value;
+  }
+
+  /**
+   * @param quantile 0.0 - 1.0
+   * @return value (bucket upper bound, max at most) at quantile, 0 if empty
+   */
+  public synchronized long getValueAt(double quantile) {
+    long target = (long) Math.ceil(quantile * count);
+    long cum = 0;
+    for (int i = 0; i < counts.length; i++) {
+      cum += counts[i];
+      if (cum >= target && cum > 0)
+        return Math.min(upper(i), max);
+    }
+    return 0;
+  }
+
+  public synchronized long getCount() {
+    return count;
+  }
+
+  public synchronized long getMax() {
+    return max;
+  }
+
+  public synchronized void reset() {
+    Arrays.fill(counts, 0);
+    count = 0;
+    sum = 0;
+    max = 0;
+  }
+
+  /**
+   * append quantiles, sum, count and max
+   * @param sb target
+   * @return sb
+   */
+  public synchronized StringBuilder appendTo(StringBuilder sb) {
+    return appendTo(sb, false).append(appendTo(new StringBuilder(), true));
+  }
+
+  /**
+   * @param sb target
+   * @param max true for max (own metric name_max), false for quantiles, sum and count
+   * @return sb
+   */
+  public synchronized StringBuilder appendTo(StringBuilder sb, boolean max) {
+    String lb = labels.isEmpty() ? "" : "{" + labels + "}";
+    if (max)
+      return sb.append(name).append("_max").append(lb).append(' ').append(this.max).append('\n');
+    String sep = labels.isEmpty() ? "" : labels + ",";
+    for (double q : QUANTILES)
+      sb.append(name).append('{').append(sep).append("quantile=\"").append(q).append("\"} ").append(getValueAt(q)).append('\n');
+    sb.append(name).append("_sum").append(lb).append(' ').append(sum).append('\n');
+    sb.append(name).append("_count").append(lb).append(' ').append(count).append('\n');
+    return sb;
+  }
+
+  /**
+   * @return short summary, e.g. for logging
+   */
+  @Override
+  public synchronized String toString() {
+    return String.format("%s n=%d p50=%d p99=%d max=%d", name, count, getValueAt(0.5), getValueAt(0.99), max);
+  }
+}
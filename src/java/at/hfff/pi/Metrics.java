@@ -0,0 +1,171 @@
+package at.hfff.pi;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Lightweight in-process metrics registry: counters, gauges, fixed bucket and latency histograms
+ * Entries are created on first use and kept by name and labels, sorted by name
+ * as the plain text exposition format (prometheus) requires samples of one metric to be grouped
+ * (with a TYPE line per metric).
+ * Output via syscmd metrics and MetricsServlet (/metrics)
+ *
+ * @author horst
+ */
+public final class Metrics {
+
+  // key is name{labels}, value Counter, Gauge, Histogram or LatencyHistogram
+  private static final Map<String, Object> REGISTRY = new ConcurrentSkipListMap<>();
+
+  private Metrics() {
+  }
+
+  /**
+   * monotonic counter
+   */
+  public static class Counter {
+    private final AtomicLong count = new AtomicLong();
+
+    public void inc() {
+      count.incrementAndGet();
+    }
+
+    public void add(long n) {
+      count.addAndGet(n);
+    }
+
+    public long get() {
+      return count.get();
+    }
+  }
+
+  private static class Gauge {
+    private final DoubleSupplier value;
+
+    private Gauge(DoubleSupplier value) {
+      this.value = value;
+    }
+  }
+
+  private static String key(String name, String labels) {
+    return labels.isEmpty() ? name : name + '{' + labels + '}';
+  }
+
+  /**
+   * @param name metric name, by convention ending with _total
+   * @param labels comma separated label list without braces, e.g. sensor="WT" or empty
+   * @return existing or new counter
+   */
+  public static Counter counter(String name, String labels) {
+    return (Counter) REGISTRY.computeIfAbsent(key(name, labels), k -> new Counter());
+  }
+
+  /**
+   * register (or replace) gauge, evaluated on output only
+   * @param name metric name
+   * @param labels see counter
+   * @param value supplier of current value
+   */
+  public static void gauge(String name, String labels, DoubleSupplier value) {
+    REGISTRY.put(key(name, labels), new Gauge(value));
+  }
+
+  /**
+   * @param name metric name
+   * @param labels see counter
+   * @param bounds upper bucket bounds, ascending, used on creation only
+   * @return existing or new histogram
+   */
+  public static Histogram histogram(String name, String labels, long... bounds) {
+    return (Histogram) REGISTRY.computeIfAbsent(key(name, labels), k -> new Histogram(name, labels, bounds));
+  }
+
+  /**
+   * @param name metric name
+   * @param labels see counter
+   * @return existing or new latency histogram (µs)
+   */
+  public static LatencyHistogram latency(String name, String labels) {
+    return (LatencyHistogram) REGISTRY.computeIfAbsent(key(name, labels), k -> new LatencyHistogram(name, labels));
+  }
+
+  /**
+   * reset counters and histograms, gauges are kept
+   */
+  public static void reset() {
+    REGISTRY.values().forEach((m) -> {
+      if (m instanceof Counter)
+        ((Counter) m).count.set(0);
+      else if (m instanceof Histogram)
+        ((Histogram) m).reset();
+      else if (m instanceof LatencyHistogram)
+        ((LatencyHistogram) m).reset();
+    });
+  }
+
+  /**
+   * @param sb target
+   * @return sb with all registered metrics appended
+   */
+  public static StringBuilder appendTo(StringBuilder sb) {
+    return appendTo(sb, "");
+  }
+
+  /**
+   * each metric (family) contiguous with its TYPE line, histogram and summary max as own gauge name_max
+   * @param sb target
+   * @param prefix of metric names to be appended, e.g. hx_
+   * @return sb
+   */
+  public static StringBuilder appendTo(StringBuilder sb, String prefix) {
+    // family name -> samples, registry order (sorted by key) kept within family
+    Map<String, List<Map.Entry<String, Object>>> families = new LinkedHashMap<>();
+    REGISTRY.entrySet().forEach((me) -> {
+      String k = me.getKey();
+      if (k.startsWith(prefix)) {
+        int brace = k.indexOf('{');
+        families.computeIfAbsent(brace < 0 ? k : k.substring(0, brace), (n) -> new ArrayList<>()).add(me);
+      }
+    });
+    families.forEach((name, entries) -> {
+      Object first = entries.get(0).getValue();
+      String type = first instanceof Counter ? "counter" : first instanceof Gauge ? "gauge"
+        : first instanceof LatencyHistogram ? "summary" : "histogram";
+      sb.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+      entries.forEach((me) -> append(sb, me.getKey(), me.getValue(), false));
+      if (first instanceof Histogram || first instanceof LatencyHistogram) {
+        sb.append("# TYPE ").append(name).append("_max gauge\n");
+        entries.forEach((me) -> append(sb, me.getKey(), me.getValue(), true));
+      }
+    });
+    return sb;
+  }
+
+  private static void append(StringBuilder sb, String k, Object m, boolean max) {
+    if (m instanceof Counter) {
+      sb.append(k).append(' ').append(((Counter) m).get()).append('\n');
+    } else if (m instanceof Gauge) {
+      double v;
+      try {
+        v = ((Gauge) m).value.getAsDouble();
+      } catch (RuntimeException ex) {
+        v = Double.NaN;   // e.g. source not yet initialized
+      }
+      sb.append(k).append(' ');
+      if (v == Math.rint(v) && !Double.isInfinite(v))
+        sb.append((long) v);
+      else
+        sb.append(v);
+      sb.append('\n');
+    } else if (m instanceof LatencyHistogram) {
+      ((LatencyHistogram) m).appendTo(sb, max);
+    } else {
+      ((Histogram) m).appendTo(sb, max);
+    }
+  }
+}
@@ -0,0 +1,24 @@
+package at.hfff.pi;
+
+import java.io.IOException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Plain text telemetry for scraping by a local collector, e.g. http://pihive:8080/PiHive/metrics
+ * Same content as syscmd metrics
+ *
+ * @author horst
+ */
+public class MetricsServlet extends HttpServlet {
+
+  private static final long serialVersionUID = 3001L;
+
+  @Override
+  protected void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    response.setContentType("text/plain; version=0.0.4");
+    response.setCharacterEncoding("UTF-8");
+    response.getWriter().write(PiHive.getInstance().getMetrics());
+  }
+}
@@ -1,5 +1,6 @@
 package at.hfff.pi;
 
+import java.io.IOException;
 import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -61,8 +62,14 @@ public class OWMStation extends  WeatherStation {
    */
   @Override
   public void trigger() {
-    owmData = Optional.of(CompletableFuture.supplyAsync(() -> {
-      return owm.getCurrentWeather(query);
+    if (owmData.isPresent() && !owmData.get().isDone())
+      return;   // preceeding fetch still retrying
+    owmData = Optional.of(fetch(() -> {
+      try {
+        return owm.getCurrentWeather(query);
+      } catch (RuntimeException ex) {
+        throw new IOException(ex);  // client wraps connection failures
+      }
     }));
     LOG.log(Level.FINE, "OWM async called");
   }
@@ -76,6 +83,9 @@ public class OWMStation extends  WeatherStation {
         CurrentWeather cw;
         try {
           cw = cf.get();
+          owmData = Optional.empty();
+          if (cw == null)
+            return false;   // failed or skipped, see fetch
           MainParameters mp = cw.getMainParameters();
           long ts = cw.getDateTime().getTime();
           for (String name : channels) {
@@ -89,7 +99,6 @@ public class OWMStation extends  WeatherStation {
             }
             s.setValue(new StampedNV(ts, name, value));
           }
-          owmData = Optional.empty();
           return true; 
         } catch (InterruptedException | ExecutionException ex ) {
           LOG.log(Level.SEVERE, null, ex);
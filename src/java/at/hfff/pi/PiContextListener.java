@@ -32,6 +32,7 @@ public class PiContextListener implements ServletContextListener {
   public void contextDestroyed(ServletContextEvent event) {
     // interrupt mainloop to force mainloop exit
     PiHive.getInstance().terminate();
+    Workers.shutdown();
     GpioFactory.getInstance().shutdown();
     LOG.log(Level.INFO, "Pi (and GPIO) released");
   }
@@ -0,0 +1,170 @@
+package at.hfff.pi;
+
+import static at.hfff.pi.PiHive.LOG;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.logging.Level;
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Recording;
+import jdk.jfr.StackTrace;
+
+/**
+ * Java Flight Recorder events, to correlate e.g. HX711 timing errors with GC pauses or tomcat activity
+ * Events are cheap when not recorded (no commit), may be enabled at runtime by syscmd jfr
+ * or by any recording enabling at.hfff.pi.* (e.g. jcmd &lt;pid&gt; JFR.start settings=profile)
+ *
+ * @author horst
+ */
+public final class PiEvents {
+
+  private static final Class<?>[] EVENTS = {Loop.class, HXShift.class, W1Read.class, WeatherFetch.class, Render.class, Upload.class};
+  private static Recording recording;
+
+  private PiEvents() {
+  }
+
+  @Name("at.hfff.pi.Loop")
+  @Label("Mainloop Iteration")
+  @Category({"PiHive"})
+  @StackTrace(false)
+  static class Loop extends Event {
+    @Label("Order")
+    String order;     // processed timer queue order, null if heartbeat only
+    @Label("Queue Depth")
+    int queued;
+  }
+
+  @Name("at.hfff.pi.HXShift")
+  @Label("HX711 Shift")
+  @Category({"PiHive", "Sensor"})
+  @StackTrace(false)
+  static class HXShift extends Event {
+    @Label("Sensor")
+    String sensor;
+    @Label("Count")
+    int count;
+    @Label("Max High µs")
+    int maxHigh;
+    @Label("Max Low µs")
+    int maxLow;
+    @Label("Highs µs")
+    String highs;
+    @Label("Lows µs")
+    String lows;
+    @Label("Start Error")
+    boolean startErr;
+    @Label("Timing Error")
+    boolean timeErr;
+  }
+
+  @Name("at.hfff.pi.W1Read")
+  @Label("W1 Read")
+  @Category({"PiHive", "Sensor"})
+  @StackTrace(false)
+  static class W1Read extends Event {
+    @Label("Sensor")
+    String sensor;
+    @Label("Value")
+    double value;
+  }
+
+  @Name("at.hfff.pi.WeatherFetch")
+  @Label("Weather Fetch")
+  @Category({"PiHive", "Network"})
+  @StackTrace(false)
+  static class WeatherFetch extends Event {
+    @Label("Station")
+    String station;
+    @Label("Success")
+    boolean success;
+  }
+
+  @Name("at.hfff.pi.Render")
+  @Label("Chart Render")
+  @Category({"PiHive"})
+  @StackTrace(false)
+  static class Render extends Event {
+    @Label("Width")
+    int width;
+    @Label("Height")
+    int height;
+    @Label("SVG Length")
+    int length;
+  }
+
+  @Name("at.hfff.pi.Upload")
+  @Label("Poster Upload")
+  @Category({"PiHive", "Network"})
+  @StackTrace(false)
+  static class Upload extends Event {
+    @Label("Poster")
+    String poster;
+    @Label("Bytes")
+    int bytes;
+    @Label("Success")
+    boolean success;
+  }
+
+  /**
+   * syscmd jfr: start [seconds] | stop | dump &lt;file&gt; | status
+   * @param args command
+   * @return reply
+   */
+  @SuppressWarnings("unchecked")
+  public static synchronized String command(String args) {
+    String[] argA = args.split(" ");
+    try {
+      switch (argA[0]) {
+        case "start":
+          if (recording != null)
+            recording.close();
+          recording = new Recording();
+          recording.setName("PiHive");
+          for (Class<?> ec : EVENTS)
+            recording.enable((Class<? extends Event>) ec);
+          // gc, safepoints and thread scheduling to correlate with
+          recording.enable("jdk.GarbageCollection");
+          recording.enable("jdk.SafepointBegin");
+          recording.enable("jdk.ThreadPark").withThreshold(Duration.ofMillis(10));
+          recording.enable("jdk.JavaMonitorWait").withThreshold(Duration.ofMillis(10));
+          if (argA.length > 1)
+            recording.setDuration(Duration.ofSeconds(Long.parseLong(argA[1])));
+          recording.setToDisk(true);
+          recording.start();
+          LOG.log(Level.INFO, "JFR recording started");
+          return "recording " + recording.getId() + " started";
+        case "stop":
+          if (recording == null)
+            return "no recording";
+          recording.stop();
+          return "recording " + recording.getId() + " stopped";
+        case "dump":
+          if (recording == null)
+            return "no recording";
+          if (argA.length < 2)
+            return "Usage: jfr dump <file>";
+          recording.dump(Paths.get(argA[1]));
+          return "recording " + recording.getId() + " dumped to " + argA[1];
+        default:
+          return recording == null ? "no recording" : "recording " + recording.getId() + " " + recording.getState();
+      }
+    } catch (IOException | IllegalStateException | IllegalArgumentException | SecurityException ex) {
+      LOG.log(Level.WARNING, "jfr " + args, ex);
+      return "jfr " + args + " failed: " + ex.getMessage();
+    }
+  }
+
+  /**
+   * stop recording (mainloop exit)
+   */
+  static synchronized void close() {
+    if (recording != null) {
+      recording.close();
+      recording = null;
+    }
+  }
+}
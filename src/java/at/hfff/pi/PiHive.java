@@ -7,6 +7,7 @@ import com.pi4j.io.gpio.GpioController;
 import com.pi4j.io.gpio.GpioFactory;
 import com.pi4j.io.gpio.GpioPinDigital;
 import com.pi4j.io.gpio.GpioPinDigitalOutput;
+import com.pi4j.io.gpio.Pin;
 import com.pi4j.io.gpio.PinPullResistance;
 import com.pi4j.io.gpio.PinState;
 import com.pi4j.io.gpio.RaspiPin;
@@ -14,37 +15,48 @@ import com.pi4j.io.w1.W1Device;
 import com.pi4j.io.w1.W1Master;
 import com.pi4j.wiringpi.GpioUtil;
 import java.awt.Color;
+import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.LineNumberReader;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.PrintWriter;
 import java.lang.reflect.Field;
+import java.lang.management.ManagementFactory;
 import java.lang.reflect.InvocationTargetException;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.DelayQueue;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 
 /**
  * Tomcat deployable adaption 
  */
-public class PiHive implements Runnable {
+public class PiHive implements Runnable, PiHiveMXBean {
 
   private static PiHive instance;
   private static String netName; 
@@ -57,22 +69,35 @@ public class PiHive implements Runnable {
   // heartbeat loop in milliseconds (to handle I2C channels and other cleanup)
   private static final int HB_DELAY = 1000;
   
-  // weatherdata fetch (OWM seens to update 2x/h, ZAMG has one hour data but duplicates are ignored anyway
-  private static final int WS_DELAY = 30 * 60 * 1000;
+  // ticks later or longer than this (milliseconds) are logged with the slowest activity
+  private static final int SLOWTICK = 100;
+  
   
   // enable use of tail -f /var/log/tomcat8/catalina.out, used by PiEndpoint too
   public static final Logger LOG = Logger.getLogger(PiHive.class.getName());
 
   private final static String DATALOG="data.log";
+  private final static String DATASNAP="data.phs";   // compressed history, data.log has newer entries only
   private final static String CVIEW="cview.ser";
   private final static String SENSORS="sensors.cfg";
   private final static String PUBLISH="publish.ser";
   private final static String ARCHIVE="archive.ser";
+  private final static String MEMORY="memory.cfg";   // history budget: bytes, entries, oldest|downsample
+  
+  // weight sensor pseudo variable suffixes, e.g. WTSensor (enabled state), WTTare (taring)
+  private final static String STATE="Sensor";
+  private final static String TARE="Tare";
   
   private final History history = new History();
   
+  // mainloop jitter, see syscmd metrics
+  private final TickMonitor tick = new TickMonitor(SLOWTICK);
+  
+  // jmx registration domain
+  private final static String JMXDOMAIN="at.hfff.pi";
+  
   // to pass starttime when client doesnt set it
-  int tlstart = -3600000 * 24;    // default 1 day back
+  long tlstart = -3600000L * 24;    // default 1 day back, seasons (months) are read from disk tier
   int tlend = 0;   // now
   
 
@@ -88,8 +113,14 @@ public class PiHive implements Runnable {
   private Publisher publisher;
   private Archiver archiver;
   
-  // weatherstation data, either OpenWeaterMap or ZAMG
-  private WeatherStation wsd;
+  // days beyond history window (see SeriesStore)
+  private SeriesStore store;
+  
+  // weatherstations, e.g. OpenWeaterMap and ZAMG, each with own schedule and channels
+  private final List<WeatherStation> stations = new ArrayList<>();
+  
+  // aggregator mode, peer instances by peers.cfg (optional)
+  private Aggregator aggregator;
   
   // persistent data
   private File persistDir;
@@ -137,11 +168,41 @@ public class PiHive implements Runnable {
       if (!persistDir.mkdir())
         LOG.log(Level.SEVERE, "Unable to create servlets persistence files at {0}", persistDir.getAbsolutePath());
     
+    // history budget, applied while restoring too
+    File memoryCfg = new File(persistDir, MEMORY);
+    if (memoryCfg.canRead()) {
+      try (LineNumberReader fr = new LineNumberReader(new FileReader(memoryCfg))) {
+        String line;
+        while ((line = fr.readLine()) != null) {
+          if (!line.startsWith("#") && !line.trim().isEmpty())
+            setBudget(line.replace(",", " "));
+        }
+      } catch (IOException | IllegalArgumentException ex) {
+        LOG.log(Level.WARNING, "{0} ignored: {1}", new Object[]{memoryCfg, ex.getMessage()});
+      }
+    }
+    LOG.log(Level.INFO, "History budget: {0}", history.getBudget());
+    // disk tier, completed days are saved before history evicts them (e.g. while restoring)
+    store = new SeriesStore(persistDir);
+    history.setEvictListener(() -> store.save(history));
+    
     // setup data logger
     File logData = new File(persistDir, DATALOG);
+    File snapData = new File(persistDir, DATASNAP);
     
-    // get old data
+    // get old data, snapshot first
     List<StampedNV> nvL = new ArrayList<>();
+    if (snapData.canRead()) {
+      try (InputStream is = new BufferedInputStream(new FileInputStream(snapData))) {
+        SeriesCodec.decode(is).forEach((snv) -> {
+          if (snv.value instanceof Number)  // like data.log
+            nvL.add(snv);
+        });
+        LOG.log(Level.INFO, "#Snapshot entries read: {0}", nvL.size());
+      } catch (IOException ex) {
+        LOG.log(Level.WARNING, "Snapshot {0} ignored: {1}", new Object[]{snapData, ex.getMessage()});
+      }
+    }
     try (LineNumberReader fr = new LineNumberReader(new FileReader(logData))) {
       String line;
       while ((line = fr.readLine()) != null) {
@@ -158,9 +219,17 @@ public class PiHive implements Runnable {
       }
       LOG.log(Level.INFO, "#Log entries read: {0}", nvL.size());
       
-      history.setLogWriter(new PrintWriter(new FileWriter(logData), true));
-      history.addAll(nvL.stream().sorted((StampedNV o1, StampedNV o2) -> o1.compareTo(o2)).distinct().collect(Collectors.toList()));
+      List<StampedNV> restored = nvL.stream().sorted((StampedNV o1, StampedNV o2) -> o1.compareTo(o2)).distinct().collect(Collectors.toList());
+      if (!restored.isEmpty())
+        history.setIncomplete(restored.get(0).pTime);   // snapshot was trimmed, first day partial
+      history.addAll(restored);
       LOG.log(Level.INFO, "#Log entries restored:{0}", history.size());
+      // restored entries go into new snapshot, data log gets the new ones only (all if snapshot failed)
+      boolean saved = saveSnapshot();
+      PrintWriter logger = new PrintWriter(new FileWriter(logData), true);
+      if (!saved)
+        history.forEach(logger::println);
+      history.setLogWriter(logger);
     } catch (IOException ioe) {
       LOG.log(Level.SEVERE, "Log {0} create failed: {1}", new Object[]{logData, ioe.getMessage()});
       return false;
@@ -168,12 +237,12 @@ public class PiHive implements Runnable {
     
     // gpio setup, required to create gpio based sensors (W1, HX)
     // w1-gpio on GPIO_07 (BCM #4), pin  is defined within config.cfg
-    // hx711 CLK and DAT are defined below (GPIO_22 und GPIO_21)
+    // hx711 CLK and DAT are options clk and dat of each HXSensor (default GPIO_22 und GPIO_21)
     GpioUtil.enableNonPrivilegedAccess();   // -> not necessary, pi and tomcat8 are in gpio group
     gpio = GpioFactory.getInstance();
     
     // load sensors (if any)
-    Class sClass = null;
+    Set<Class> sClasses = new LinkedHashSet<>();   // multichannel devices
     File sensorData = new File(persistDir, SENSORS);
     if (sensorData.canRead()) {
       // read data and merge into sensorMap, simple sensors are created
@@ -188,18 +257,28 @@ public class PiHive implements Runnable {
               String ctyp = columns[3];
               if (ctyp.endsWith("W1Sensor")) {
                 sensorMap.put(cname, new W1Sensor(columns));
+              } else if (ctyp.endsWith("HXIIOSensor")) {
+                // HX711 weight sensor read by kernel iio driver (hx711 overlay)
+                sensorMap.put(cname, new HXIIOSensor(columns));
               } else if (ctyp.endsWith("HXSensor")) {
-                // HX711 weight sensor
-                // TODO: make used gpio pins configurable
+                // HX711 weight sensor(s), pins (wiringPi numbering) by options, e.g. clk=22, dat=21
+                // all scales share one reader thread, aka critical sections never overlap
                 // using clk  PinState.HIGH to make reset doesnt help against error on first measurement
-                sensorMap.put(cname, new HXSensor(columns
-                  , gpio.provisionDigitalOutputPin(RaspiPin.GPIO_22, "HX_CLK", PinState.LOW)
-                  , gpio.provisionDigitalInputPin(RaspiPin.GPIO_21, "HX_DAT", PinPullResistance.OFF)
-                ));
+                try {
+                  Pin clk = RaspiPin.getPinByAddress(Integer.parseInt(Sensor.getOption(columns, "clk", "22")));
+                  Pin dat = RaspiPin.getPinByAddress(Integer.parseInt(Sensor.getOption(columns, "dat", "21")));
+                  sensorMap.put(cname, new HXSensor(columns
+                    , gpio.provisionDigitalOutputPin(clk, cname + "_CLK", PinState.LOW)
+                    , gpio.provisionDigitalInputPin(dat, cname + "_DAT", PinPullResistance.OFF)
+                  ));
+                } catch (RuntimeException ex) {  // invalid number or pin already provisioned
+                  LOG.log(Level.WARNING, "HXSensor {0} pin setup failed: {1}", new Object[]{cname, ex.getMessage()});
+                }
               } else {
                 // multichanel devices are created later
                 try {
-                  sClass = Class.forName(ctyp);   // not a HashSet yet, aka only! one 
+                  Class sClass = Class.forName(ctyp);
+                  sClasses.add(sClass);
                   sensorMap.put(cname, new ExtSensor(columns, sClass));
                 } catch (ClassNotFoundException ex) {
                   LOG.log(Level.WARNING, "", ex);
@@ -267,18 +346,19 @@ public class PiHive implements Runnable {
       LOG.log(Level.INFO, "W1Sensor({1}): {0}", new Object[]{w1s, old});
     }
     
-    // optional weatherstation
-    if (sClass != null) {
-      // add multichannel station(s) 
-      // !!! currently only one !!!
+    // optional weatherstations
+    for (Class sClass : sClasses) {
       try {
-        if (sClass.getSuperclass().getName().endsWith("WeatherStation")) {
+        if (WeatherStation.class.isAssignableFrom(sClass)) {
           // additional channels may be added if not yet within sensors.cfg
           //warning: [unchecked] unchecked call to getConstructor(Class<?>...) as a member of the raw type Class
-          //wsd = (WeatherStation)sClass.getConstructor(SensorMap.class).newInstance(sensorMap);
-          wsd = (WeatherStation)sClass.getConstructor(Map.class).newInstance(sensorMap);
-          // schedule first weatherdata fetch
-          TQ.add(new DelayableOrder(DelayableOrder.WSTRIGGER)); 
+          WeatherStation ws = (WeatherStation)sClass.getConstructor(Map.class).newInstance(sensorMap);
+          // fetch result is processed by mainloop as soon as available
+          ws.setListener(() -> TQ.add(new DelayableOrder(DelayableOrder.WSDATA, 0, ws)));
+          // schedule first weatherdata fetch, staggered
+          TQ.add(new DelayableOrder(DelayableOrder.WSTRIGGER, stations.size() * 10000L, ws)); 
+          stations.add(ws);
+          LOG.log(Level.INFO, "Weatherstation {0} channels {1}", new Object[]{sClass.getSimpleName(), ws.getChannels()});
         } else {
           LOG.log(Level.WARNING, "Invalid class {0}", sClass.getSuperclass());
         }
@@ -291,6 +371,17 @@ public class PiHive implements Runnable {
       }
     }
     
+    // aggregator mode when peers configured
+    File peers = new File(persistDir, Aggregator.PEERS);
+    if (peers.canRead()) {
+      try {
+        aggregator = new Aggregator(peers, history, () -> TQ.add(new DelayableOrder(DelayableOrder.PEERDATA)));
+        LOG.log(Level.INFO, "Aggregating peers {0}", aggregator.getPeers());
+      } catch (IOException ex) {
+        LOG.log(Level.WARNING, "Peers not loaded", ex);
+      }
+    }
+    
     // load/create publish parameters and schedule first stores
     try (FileInputStream fis = new FileInputStream(new File(persistDir, PUBLISH)); ObjectInputStream ois = new ObjectInputStream(fis)) {
       publisher = (Publisher)ois.readObject();
@@ -308,6 +399,8 @@ public class PiHive implements Runnable {
     }
     LOG.log(Level.INFO, "Archive destination: {0}", archiver.urlpattern);
     TQ.add(new DelayableOrder(DelayableOrder.ARCHIVE, 3600000));  // first time after 1 h
+    
+    TQ.add(new DelayableOrder(DelayableOrder.STORE, 120000));  // first time after 2 minutes
     return true;
   }
  
@@ -318,18 +411,55 @@ public class PiHive implements Runnable {
   @Override
   public void run() {
     LOG.log(Level.INFO, "Starting mainloop");
+    // runtime telemetry, see syscmd metrics
+    Metrics.gauge("pihive_tq_depth", "", () -> TQ.size());
+    Metrics.gauge("pihive_history_size", "", () -> history.size());
+    Metrics.gauge("pihive_ws_sessions", "", () -> history.clients());
+    Metrics.gauge("jvm_heap_used_bytes", "", () -> Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory());
+    Metrics.gauge("jvm_heap_max_bytes", "", () -> Runtime.getRuntime().maxMemory());
+    registerMBeans(true);
+    long nextBeat = System.currentTimeMillis();   // sensors are served on heartbeat only
     try {
       while (true) {
         // entries created by change listeners
-        DelayableOrder te = TQ.poll(HB_DELAY, TimeUnit.MILLISECONDS);
+        long pollStart = System.nanoTime();
+        long wait = Math.max(0, nextBeat - System.currentTimeMillis());
+        DelayableOrder te = TQ.poll(wait, TimeUnit.MILLISECONDS);
+        // lateness against order due time or heartbeat
+        tick.begin(te != null ? -te.getDelay(TimeUnit.MICROSECONDS)
+          : (System.nanoTime() - pollStart) / 1000 - wait * 1000L);
+        PiEvents.Loop loopEvent = new PiEvents.Loop();
+        loopEvent.begin();
+        if (te != null)
+          loopEvent.order = te.getName();
         // skip canceled orders
         if (te != null && !te.isCanceled()) {
           LOG.log(Level.FINE, "Processing {0}", te);
+          tick.step(te.getName());
           // analyse underlying switch events
           switch (te.getType()) {
-            case DelayableOrder.WSTRIGGER:   // just trigger weatherstation, the result is fetched in loop 
-              wsd.trigger();
-              TQ.add(new DelayableOrder(DelayableOrder.WSTRIGGER, WS_DELAY));  // reschedule
+            case DelayableOrder.WSTRIGGER: { // just trigger weatherstation, the result is signaled by WSDATA
+              WeatherStation ws = (WeatherStation) te.getPayload();
+              ws.trigger();
+              TQ.add(new DelayableOrder(DelayableOrder.WSTRIGGER, ws.getInterval(), ws));  // reschedule
+              break;
+            }
+            
+            case DelayableOrder.WSDATA: {   // fetch completed, station sensors might have new values
+              WeatherStation ws = (WeatherStation) te.getPayload();
+              if (ws.hasData()) {
+                ws.getChannels().forEach((name) -> {
+                  StampedNV snv = sensorMap.get(name).getValue();
+                  if (snv != null)
+                    history.addLast(snv);
+                });
+              }
+              break;
+            }
+              
+            case DelayableOrder.PEERDATA:   // values received from peers, namespaced e.g. pihive2:WT
+              if (aggregator != null)
+                history.merge(aggregator.drain());   // backfill is older than local entries
               break;
               
             case DelayableOrder.PUBLISH:   // write graphics to homepage TODO: extra module to be executed async (future task)
@@ -339,6 +469,10 @@ public class PiHive implements Runnable {
             case DelayableOrder.ARCHIVE:   // archive log data TODO: extra module to be executed async (future task)
               TQ.add(new DelayableOrder(DelayableOrder.ARCHIVE, archiver.archive(history, netName)));
               break;
+              
+            case DelayableOrder.STORE:   // completed days to disk tier, written by store worker
+              TQ.add(new DelayableOrder(DelayableOrder.STORE, store.save(history)));
+              break;
 
             default:
               LOG.log(Level.WARNING, "Unexpected event {0}, te");
@@ -347,16 +481,28 @@ public class PiHive implements Runnable {
         }
         TQ.removeIf(t -> t.isCanceled());
 
-        // weather station sensors might have new values
-        boolean checkExt = wsd != null && wsd.hasData(); 
-        
-        // read temperature values every second
+        // read temperature values every second, not on data orders (WSDATA, PEERDATA, ...)
         //TODO: channels like OWMData shall become sensors too and for timing a countdown latch 
         // then TimerQueue above might become obsolete and replaced by simple sleep
+        long now = System.currentTimeMillis();
+        if (now < nextBeat) {
+          tick.end();
+          loopEvent.queued = TQ.size();
+          loopEvent.commit();
+          continue;
+        }
+        nextBeat += HB_DELAY;
+        if (nextBeat <= now)
+          nextBeat = now + HB_DELAY;   // fell behind, no catch up bursts
         sensorMap.values().forEach((sensor) -> {   
+          // swinging door value pending for too long
+          StampedNV pending = sensor.flush(now);
+          if (pending != null)
+            history.addLast(pending);
           // read preceeding measurement
           if (sensor.isEnabled()) {
-            if (!(sensor instanceof ExtSensor) || checkExt) {
+            tick.step(sensor.getName());
+            if (!(sensor instanceof ExtSensor)) {   // see WSDATA
               StampedNV snv = sensor.getValue();  // includes sensorspecific check if any
               if (snv != null)  
                 history.addLast(snv);
@@ -369,13 +515,32 @@ public class PiHive implements Runnable {
           }
             }
           }
-        });    
+        });
+
+        // start next temperature conversion (async, bulk conversion or parallel reads)
+        tick.step("W1TRIGGER");
+        W1Sensor.triggerAll(sensorMap.values());
+        tick.end();
+        loopEvent.queued = TQ.size();
+        loopEvent.commit();
       } // while true
     } catch (InterruptedException | RuntimeException ext) {
       LOG.log(Level.SEVERE, "Mainloop interrupted", ext);
     }
+    registerMBeans(false);
+    PiEvents.close();
+    if (aggregator != null)
+      aggregator.close();
     TQ.clear();
     history.close();
+    if (saveSnapshot()) {
+      try (FileWriter fw = new FileWriter(new File(persistDir, DATALOG))) {
+        // truncated, entries are within snapshot
+      } catch (IOException ex) {
+        LOG.log(Level.SEVERE, null, ex);
+      }
+    }
+    sensorMap.values().forEach((s) -> s.close());
     
     // save sensordata (write only abstract superclass data)
     File sensorData = new File(persistDir, SENSORS);
@@ -389,7 +554,7 @@ public class PiHive implements Runnable {
   
     // save archive data and parameters
     if (archiver != null) {
-      archiver.archive(history, netName);   // final archive action
+      archiver.upload(history, netName).join();   // final archive action, wait for upload
       try (FileOutputStream fos = new FileOutputStream(new File(persistDir, ARCHIVE)); ObjectOutputStream oos = new ObjectOutputStream(fos)) {
         oos.writeObject(archiver);
       } catch (IOException ex) {
@@ -442,8 +607,27 @@ public class PiHive implements Runnable {
         // by adding to history a reply is generated anyway
         history.addLast(new StampedNV("reset", 0));
         break;
-      case "history":
-        reply = history.toString();
+      case "memory":  // history footprint, "memory <bytes>[k|m] [entries [oldest|downsample]]" sets budget (0: unlimited)
+        if (!args.isEmpty()) {
+          setBudget(args);
+          try (PrintWriter pw = new PrintWriter(new File(persistDir, MEMORY))) {
+            pw.println(history.getBudget());
+          } catch (IOException ex) {
+            LOG.log(Level.SEVERE, null, ex);
+          }
+        }
+        reply = history.getUsage();
+        break;
+      case "history":  // optional arguments: timestamp (milliseconds) of oldest entry [lines per page [cursor]]
+        if (args.isEmpty()) {
+          reply = history.toString();
+        } else {
+          String[] argA = args.split(" ");
+          if (argA.length > 1)
+            reply = history.page(Long.parseLong(argA[0]), argA.length > 2 ? Long.parseLong(argA[2]) : -1, Integer.parseInt(argA[1]));
+          else
+            reply = history.toString(Long.parseLong(args));
+        }
         break;
       case "shutdown":  //NOT YET privilege missing, see raspberry/faults/policykit
         try {
@@ -547,11 +731,24 @@ public class PiHive implements Runnable {
             cViewL = loadCView();
           }
           if (argA.length > 2)  // optional, otherwise currently set one (preceeding request or peristent by loadCView)
-            tlstart = -3600000 * Integer.parseInt(argA[2]);  // startpoint relative to now (milliseconds)
+            tlstart = -3600000L * Integer.parseInt(argA[2]);  // startpoint relative to now (milliseconds)
           long ct = System.currentTimeMillis();
           reply = getSVG(Integer.parseInt(argA[0]), Integer.parseInt(argA[1]), ct + tlstart, ct + tlend, cViewL);
         }
         break;
+      case "hxstat":  // weight sensor pulse timing and failure telemetry, "hxstat reset" to restart
+        if (args.equals("reset"))
+          sensorMap.values().stream().filter((s) -> s instanceof HXSensor).forEach((s) -> ((HXSensor) s).resetStats());
+        reply = Metrics.appendTo(new StringBuilder(), "hx_").toString();
+        break;
+      case "metrics":  // runtime telemetry, "metrics reset" to restart counters and histograms
+        if (args.equals("reset"))
+          Metrics.reset();
+        reply = getMetrics();
+        break;
+      case "jfr":  // flight recorder: start [seconds] | stop | dump <file> | status
+        reply = PiEvents.command(args);
+        break;
       case "version":
         reply = "$Id: PiHive.java,v 1.22 2021/09/02 10:09:05 horst Exp $";
         break;
@@ -567,13 +764,22 @@ public class PiHive implements Runnable {
     return reply;
   }
 
+  /**
+   * @return telemetry in plain text exposition format (used by MetricsServlet)
+   */
+  public String getMetrics() {
+    StringBuilder sb = new StringBuilder();
+    Metrics.appendTo(sb);   // including weight sensor telemetry (hx_*)
+    return sb.toString();
+  }
+
   private ArrayList<CView> loadCView() {
     ArrayList<CView> cViewL = new ArrayList<>();
     File cvf = new File(persistDir, CVIEW);
     try (FileInputStream fis = new FileInputStream(cvf); ObjectInputStream ois = new ObjectInputStream(fis)) {
       int w = ois.readInt();   // unused, allways clientprovided (due to FHChart - compatibility)
       int h = ois.readInt();   // unused, clientprovided
-      tlstart = -3600000 * ois.readInt();  // new default when not provided by client
+      tlstart = -3600000L * ois.readInt();  // new default when not provided by client
       while (fis.available() > 0) {
         CView cv = (CView)ois.readObject();
         if (!cv.name.isEmpty())
@@ -599,7 +805,7 @@ public class PiHive implements Runnable {
       return "Missing chart settings \"cview.ser\"";
     long ct = System.currentTimeMillis();
     //TODO: Allow tlstart to be set in export dialog
-    return getSVG(w, h, ct - 3600000 * hours, ct, cViewL);
+    return getSVG(w, h, ct - 3600000L * hours, ct, cViewL);
   }
   
   /**
@@ -618,6 +824,15 @@ public class PiHive implements Runnable {
     
     //                      title                                  subtitle
     Chart chart = new Chart(netName + " @ " + DDF.format(new Date()), "Aktuell: ", cViewL);
+    // period before history from disk tier, rollups for windows beyond a week
+    StampedNV first = history.peekFirst();
+    long hStart = first == null ? eTime : first.pTime;
+    if (store != null && sTime < hStart) {
+      Set<String> names = new HashSet<>();
+      cViewL.forEach((cv) -> names.add(cv.name.toLowerCase()));
+      store.query(sTime, Math.min(eTime, hStart), (source) -> names.contains(source.toLowerCase()), eTime - sTime > History.HSIZE
+        , (snv) -> chart.appendData(snv.pTime, snv.source, snv.value));
+    }
     synchronized(history) {
       history.forEach((hist) -> {
         if ( hist.pTime >= sTime && hist.pTime <= eTime)
@@ -666,6 +881,21 @@ public class PiHive implements Runnable {
     return new StampedNV(name, pin.getState().getValue()).toString();
   }
 
+  /**
+   * weight sensor pseudo variables, e.g. WTSensor and WTTare for weight sensor WT
+   * @param name variable name
+   * @param suffix STATE or TARE
+   * @return weight sensor if name is weight sensor name + suffix, otherwise null
+   */
+  private Sensor getWeightSensor(String name, String suffix) {
+    if (name.endsWith(suffix)) {
+      Sensor s = sensorMap.get(name.substring(0, name.length() - suffix.length()));
+      if (s instanceof HXSensor)
+        return s;
+    }
+    return null;
+  }
+  
   /**
    * get value of a variable
    *
@@ -676,28 +906,18 @@ public class PiHive implements Runnable {
    */
   public String getValue(String name) throws IllegalArgumentException {
     StampedNV nv = null;
-    Sensor s;
-    switch (name) {
-      case "WTSensor": // just state (enabled true/false)
-      case "WTTare":   // current weight as tare start value
-        s = sensorMap.get("WT");
-        if (s != null) {
-          if (name.equals("WTSensor"))
-            nv = new StampedNV(name, s.isEnabled() ? 0 : 1);
-          else {
-            nv = s.getLast();
-            if (nv != null)
-              nv = new StampedNV(name, nv.value);
-          }            
-        }
-        break;
-
-      default:
-        s = sensorMap.get(name);
-        if (s != null)
-          nv = s.getLast();
-        break;
-        
+    Sensor s = sensorMap.get(name);
+    if (s != null) {
+      nv = s.getLast();
+    } else if ((s = getWeightSensor(name, STATE)) != null) {
+      // just state (enabled true/false)
+      nv = new StampedNV(name, s.isEnabled() ? 0 : 1);
+    } else if ((s = getWeightSensor(name, TARE)) != null) {
+      // current weight as tare start value
+      nv = s.getLast();
+      if (nv != null)
+        nv = new StampedNV(name, nv.value);
+    }
         /* addressing local field (with single redirection) removed
         * field needs to be at least 'protected' to be accessible from here
         * qualified name shall be (classname.fieldname)
@@ -724,7 +944,6 @@ public class PiHive implements Runnable {
           LOG.log(Level.WARNING, name, ex);
         }
         */
-    }
     if (nv == null) {
       if (s == null)
         LOG.log(Level.WARNING, "No sensor for {0}", name);
@@ -747,36 +966,32 @@ public class PiHive implements Runnable {
    */
   public void setValue(String name, String arg) throws IllegalArgumentException {
     Sensor sensor;
+    if ((sensor = getWeightSensor(name, STATE)) != null) {
+      boolean onoff = Integer.parseInt(arg) == 0;
+      if (sensor.isEnabled() == onoff) {
+        LOG.log(Level.WARNING, "Sensor {0} state unchanged", sensor.getName());
+      } else {
+        sensor.setEnabled(onoff);
+        history.add(new StampedNV(name, onoff ? 0 : 1)); // no text yet allowed as value
+        LOG.log(Level.INFO, "Sensor {0} state changed: {1}", new Object[]{sensor.getName(), sensor.isEnabled()});
+      }
+      return;
+    }
+    if ((sensor = getWeightSensor(name, TARE)) != null) {
+      if (sensor.getLast() == null) {
+        LOG.log(Level.WARNING, "No current value for {0}", sensor.getName());
+        return;
+      }
+      double setWeight = Double.parseDouble(arg);
+      double curWeight = (double) sensor.getLast().value;
+      String before = sensor.toString();
+      String calTyp = sensor.setTare(setWeight, curWeight) ? "offset" : "slope"; 
+      String after = sensor.toString();
+      LOG.log(Level.INFO, "{0} {1} ==> {2}\n  typ={3}\n  before={4}\n  after={5}", 
+        new Object[]{name, curWeight, setWeight, calTyp, before, after});
+      return;
+    }
     switch (name) {
-      case "WTSensor":
-        sensor = sensorMap.get("WT");
-        if (sensor != null) {
-          boolean onoff = Integer.parseInt(arg) == 0;
-          if (sensor.isEnabled() == onoff) {
-            LOG.log(Level.WARNING, "Sensor {0} state unchanged", sensor.getName());
-          } else {
-            sensor.setEnabled(onoff);
-            history.add(new StampedNV(name, onoff ? 0 : 1)); // no text yet allowed as value
-            LOG.log(Level.INFO, "Sensor {0} state changed: {1}", new Object[]{sensor.getName(), sensor.isEnabled()});
-          }
-        } else {
-          LOG.log(Level.WARNING, "No \"WT\" sensor");
-        }
-        break;
-      case "WTTare":
-        sensor = sensorMap.get("WT");
-        if (sensor != null) {
-          double setWeight = Double.parseDouble(arg);
-          double curWeight = (double) sensor.getLast().value;
-          String before = sensor.toString();
-          String calTyp = sensor.setTare(setWeight, curWeight) ? "offset" : "slope"; 
-          String after = sensor.toString();
-          LOG.log(Level.INFO, "WTTare {0} ==> {1}\n  typ={2}\n  before={3}\n  after={4}", 
-            new Object[]{curWeight, setWeight, calTyp, before, after});
-        } else {
-          LOG.log(Level.WARNING, "No \"WT\" sensor");
-        }
-        break;
       case "Z": /* Zucker */
       case "V": /* Varroa */
         history.add(new StampedNV(name, arg));
@@ -817,14 +1032,154 @@ public class PiHive implements Runnable {
     }
   }
 
+  /**
+   * (un)register mainloop and sensors at platform mbean server
+   * @param register false to unregister
+   */
+  private void registerMBeans(boolean register) {
+    MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+    Map<ObjectName, Object> beans = new HashMap<>();
+    try {
+      beans.put(new ObjectName(JMXDOMAIN + ":type=PiHive"), this);
+      for (Sensor s : sensorMap.values())
+        beans.put(new ObjectName(JMXDOMAIN + ":type=Sensor,name=" + ObjectName.quote(s.getName())), s);
+    } catch (JMException ex) {
+      LOG.log(Level.WARNING, "Invalid mbean name", ex);
+    }
+    beans.forEach((on, bean) -> {
+      try {
+        if (mbs.isRegistered(on))
+          mbs.unregisterMBean(on);   // e.g. left over from preceeding instance
+        if (register)
+          mbs.registerMBean(bean, on);
+      } catch (JMException ex) {
+        LOG.log(Level.WARNING, "MBean {0} failed: {1}", new Object[]{on, ex.getMessage()});
+      }
+    });
+  }
+  
+  @Override
+  public int getHistorySize() {
+    return history.size();
+  }
+  
+  @Override
+  public long getHistoryAge() {
+    StampedNV first = history.peekFirst();
+    return first == null ? 0 : (System.currentTimeMillis() - first.pTime) / 1000;
+  }
+  
+  @Override
+  public long getHistoryMemory() {
+    return history.getBytes();
+  }
+  
+  /**
+   * @param args bytes (suffix k or m allowed) [entries [oldest|downsample]], space separated
+   * @throws IllegalArgumentException on invalid number or policy
+   */
+  private void setBudget(String args) throws IllegalArgumentException {
+    String[] argA = args.trim().split("\\s+");
+    String b = argA[0].toLowerCase();
+    long bytes;
+    if (b.endsWith("k"))
+      bytes = Long.parseLong(b.substring(0, b.length() - 1)) << 10;
+    else if (b.endsWith("m"))
+      bytes = Long.parseLong(b.substring(0, b.length() - 1)) << 20;
+    else
+      bytes = Long.parseLong(b);
+    int entries = argA.length > 1 ? Integer.parseInt(argA[1]) : 0;
+    History.Policy policy = argA.length > 2 ? History.Policy.valueOf(argA[2].toUpperCase()) : History.Policy.DOWNSAMPLE;
+    history.setBudget(bytes, entries, policy);
+  }
+  
+  @Override
+  public String[] getScheduledOrders() {
+    return TQ.stream().filter((o) -> !o.isCanceled()).map(DelayableOrder::toString).toArray(String[]::new);
+  }
+  
+  @Override
+  public String getLoopActivity() {
+    return tick.getActivity();
+  }
+  
+  @Override
+  public String getPublisher() {
+    return publisher == null ? "" : publisher.params();
+  }
+  
+  @Override
+  public String getArchiver() {
+    return archiver == null ? "" : archiver.params();
+  }
+  
+  @Override
+  public String getLogLevel() {
+    Level level = LOG.getLevel();
+    return level == null ? Level.INFO.getName() : level.getName();
+  }
+  
+  @Override
+  public void setLogLevel(String level) {
+    sysCommand("loglevel", level);
+  }
+  
+  @Override
+  public void publish() {
+    if (publisher != null)
+      publisher.publish(this, netName);
+  }
+  
+  @Override
+  public void archive() {
+    if (archiver != null)
+      archiver.archive(history, netName);
+  }
+  
+  /**
+   * write history compressed (see SeriesCodec), via temporary file,
+   * aka existing snapshot and data log stay valid until written completely
+   * @return false on failure
+   */
+  private boolean saveSnapshot() {
+    File snapData = new File(persistDir, DATASNAP);
+    File tmpData = new File(persistDir, DATASNAP + ".tmp");
+    try {
+      try (FileOutputStream fos = new FileOutputStream(tmpData)) {
+        fos.write(history.toBytes());
+      }
+      Files.move(tmpData.toPath(), snapData.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      LOG.log(Level.INFO, "Snapshot {0} saved, {1} bytes", new Object[]{snapData, snapData.length()});
+      return true;
+    } catch (IOException ex) {
+      LOG.log(Level.SEVERE, "Snapshot {0} failed: {1}", new Object[]{snapData, ex.getMessage()});
+      return false;
+    }
+  }
+  
   // keep references to websocket SendHandler to allow broadcasting of change notifications
+  // initial snapshot: hostname, loglevel and last value of each source in history
   public void addClient(String id, PiEndpoint.OutputFeeder receiver) {
-    history.addClient(id, receiver);
+    Level level = LOG.getLevel();
+    StringBuilder sb = new StringBuilder()
+      .append(new StampedNV("hostname", netName).toString(true)).append('\n')
+      .append(new StampedNV("loglevel", (level == null ? Level.INFO : level).getName()).toString(true)).append('\n');
+    history.addClient(id, receiver, sb);
   }
 
   public void removeClient(String id) {
     history.removeClient(id);
   }
+  
+  /**
+   * resumable sync, missed entries are replayed followed by live push (with sequence numbers)
+   * @param id client id, replaces registration by addClient
+   * @param receiver output
+   * @param seq last sequence number received by client, negative for live push only
+   */
+  public void since(String id, PiEndpoint.OutputFeeder receiver, long seq) {
+    history.subscribe(id, receiver, seq);
+  }
  
   /**
    * For Debugging: the start method may be called without websocket environment
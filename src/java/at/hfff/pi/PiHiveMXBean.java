@@ -0,0 +1,55 @@
+package at.hfff.pi;
+
+/**
+ * JMX view of the mainloop, registered as at.hfff.pi:type=PiHive
+ * allows to attach e.g. VisualVM and correlate GC and CPU with application activity
+ *
+ * @author horst
+ */
+public interface PiHiveMXBean {
+
+  boolean isAlive();
+
+  int getHistorySize();
+
+  /**
+   * @return age of oldest history entry in seconds
+   */
+  long getHistoryAge();
+
+  /**
+   * @return estimated history heap usage in bytes (see syscmd memory)
+   */
+  long getHistoryMemory();
+
+  /**
+   * @return pending orders of the timer queue
+   */
+  String[] getScheduledOrders();
+
+  /**
+   * @return order or sensor currently processed by mainloop, idle when waiting
+   */
+  String getLoopActivity();
+
+  /**
+   * @return delay timeline urlpattern
+   */
+  String getPublisher();
+
+  String getArchiver();
+
+  String getLogLevel();
+
+  void setLogLevel(String level);
+
+  /**
+   * publish now, only queued (rendered and uploaded by worker threads, see Workers), returns immediately
+   */
+  void publish();
+
+  /**
+   * archive now, only queued (uploaded by publish worker, see Workers), returns immediately
+   */
+  void archive();
+}
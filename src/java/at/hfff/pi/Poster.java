@@ -2,7 +2,7 @@ package at.hfff.pi;
 
 import static at.hfff.pi.PiHive.LOG;
 import java.io.IOException;
-import java.io.OutputStreamWriter;
+import java.io.OutputStream;
 import java.io.Serializable;
 import java.net.URL;
 import java.text.DateFormat;
@@ -48,30 +48,57 @@ public class Poster implements Serializable {
     return sb.append(delay).append(' ').append(timeline).append(' ').append(urlpattern).toString();
   }
   
-  public boolean post(String content, String host) {
-    boolean ret = false;
+  /**
+   * upload async (publish worker)
+   * @param content to be posted
+   * @param host replaces &lt;host&gt; in urlpattern
+   * @return future completed with result message when upload is done
+   */
+  public CompletableFuture<String> post(String content, String host) {
+    return post(content.getBytes(), host);
+  }
+  
+  /**
+   * upload async (publish worker)
+   * @param content to be posted, e.g. compressed series
+   * @param host replaces &lt;host&gt; in urlpattern
+   * @return future completed with result message when upload is done
+   */
+  public CompletableFuture<String> post(byte[] content, String host) {
+    CompletableFuture<String> ret = CompletableFuture.completedFuture("Nothing to publish");
     if (urlpattern != null && !urlpattern.isEmpty() && delay > 0 && timeline > 0) {
       if (urlpattern.startsWith("ftp://")) {
-        if (!content.isEmpty()) {
+        if (content.length > 0) {
           String target = urlpattern.replace("<host>", host).replace("<date>", DDF.format(new Date()));
-          LOG.log(Level.FINE, "Posting {0} to {1}", new Object[]{content.substring(0, 20) + "...", target});
-          CompletableFuture.supplyAsync(() -> {
-            try (OutputStreamWriter osw = new OutputStreamWriter(new URL(target).openConnection().getOutputStream())) {
+          String lb = "poster=\"" + getClass().getSimpleName() + "\"";
+          long postStart = System.nanoTime();
+          LOG.log(Level.FINE, "Posting {0} bytes to {1}", new Object[]{content.length, target});
+          PiEvents.Upload event = new PiEvents.Upload();
+          event.begin();
+          event.poster = getClass().getSimpleName();
+          event.bytes = content.length;
+          ret = Workers.supply(() -> {
+            try (OutputStream os = new URL(target).openConnection().getOutputStream()) {
               int bsz = 4096;
               int start = 0;
-              while (start + bsz < content.length()) {
-                osw.write(content, start, bsz);
+              while (start + bsz < content.length) {
+                os.write(content, start, bsz);
                 start += bsz;
               }
-              osw.write(content, start, content.length() - start);
-              osw.close();
+              os.write(content, start, content.length - start);
+              os.close();
+              event.success = true;
               return "Publishing OK";
             } catch (IOException ex) {
+              Metrics.counter("poster_failures_total", lb).inc();
               return "Publishing error: " + ex.getMessage();
             }
-          }).thenAccept(msg -> LOG.log(Level.INFO, msg))
-            //.thenRun(() -> LOG.log(Level.INFO, "Publish finished"))
-            .join();
+          }, Workers.PUBLISH).whenComplete((msg, ex) -> {
+            LOG.log(Level.INFO, msg != null ? msg : "Publishing error: " + ex.getMessage());
+            Metrics.histogram("poster_upload_ms", lb, 100, 500, 1000, 5000, 10000, 30000, 60000, 300000)
+              .record((System.nanoTime() - postStart) / 1000000);
+            event.commit();
+          });
         } else {
           LOG.log(Level.WARNING, "Missing content");
         }
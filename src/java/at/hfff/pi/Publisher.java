@@ -1,6 +1,8 @@
 package at.hfff.pi;
 
+import static at.hfff.pi.PiHive.LOG;
 import java.io.Serializable;
+import java.util.logging.Level;
 
 /**
  * Periodical posting log data as graphics, typically each hour for one week
@@ -27,7 +29,13 @@ public class Publisher extends Poster implements Serializable {
    * @return delay till next attempt in milliseconds
    */
   public long publish(PiHive instance, String source) {
-    post(instance.getSVG(width, height, timeline), source);
+    // rendered by render worker, skipped if busy
+    Workers.supply(() -> instance.getSVG(width, height, timeline), Workers.RENDER)
+      .thenCompose((svg) -> post(svg, source))
+      .exceptionally((ex) -> {
+        LOG.log(Level.WARNING, "Publishing skipped: {0}", ex.getMessage());
+        return null;
+      });
     return delay * 3600000;
   }
 }
@@ -1,12 +1,17 @@
 package at.hfff.pi;
 
+import static at.hfff.pi.PiHive.LOG;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Level;
+
 /**
  * Holder for sensor data including linear calibration
  * superclass members are persistent except "enabled" as there is no reenable method yet in socket interface
  * see toString() for output format
  * @author horst
  */
-public abstract class Sensor {
+public abstract class Sensor implements SensorMXBean {
   private String name = "";     // mandatory/unique for matching
   private String descr = "";    // e.g. where sensor shall be mounted, ....
   private String unit = "";     // descriptive, e.g. hPa or °C
@@ -18,16 +23,20 @@ public abstract class Sensor {
   private FType check = FType.ANY;       // accept any value, see history.filter
   private boolean enabled = true;  // gather values, false e.g. when sensor fails
   private StampedNV snvLast = null;   // value of last acceptet measurement 
+  private StampedNV sdPending = null; // swinging door: most recent not yet accepted measurement
+  private volatile StampedNV sdSample = null;  // swinging door: most recent measurement, see getLast()
+  private double sdUpper, sdLower;    // swinging door: slopes (per ms) of upper and lower door
+  private final Map<String, String> options = new LinkedHashMap<>();  // subclass specific key=value settings
    
   private double setValue = Double.NaN;  // value when last tare
  
   private final double MINTARA = 5.0;  // minimum weight addon to be accepted as second point
   private final static String SEP = ", ";
   
-  protected enum FType {ANY, CHANGED, NONZERO, MINDIFF, MAXDIFF, MINDELAY, MINDIFFDELAY}
+  protected enum FType {ANY, CHANGED, NONZERO, MINDIFF, MAXDIFF, MINDELAY, MINDIFFDELAY, SWINGDOOR}
   
   /**
-   * @param params String array holding name unit description class [id enabled [a b delta ftyp]]
+   * @param params String array holding name unit description class [id enabled [a b delta ftyp [key=value ...]]]
    */
   public Sensor(String[] params) {
     name = params[0];
@@ -44,6 +53,11 @@ public abstract class Sensor {
         if (params.length > 9) {
           delta = Double.parseDouble(params[8]);
           check = FType.valueOf(params[9]);
+          for (int i = 10; i < params.length; i++) {
+            String[] kv = params[i].split("=", 2);
+            if (kv.length == 2)
+              options.put(kv[0], kv[1]);
+          }
         }
       }
     }
@@ -102,6 +116,16 @@ public abstract class Sensor {
     this.b = b;
   }
   
+  @Override
+  public double getA() {
+    return a;
+  }
+  
+  @Override
+  public double getB() {
+    return b;
+  }
+  
   /**
    * Calculate calibration
    * when setValue from preceeding setTare() is significant higher than new setValue
@@ -149,12 +173,70 @@ public abstract class Sensor {
     return enabled;
   }
   
+  /**
+   * @param key option name
+   * @param def default when not configured
+   * @return configured value (trailing key=value fields in sensors.cfg) or default
+   */
+  protected String getOption(String key, String def) {
+    return options.getOrDefault(key, def);
+  }
+  
+  /**
+   * option lookup before sensor creation (e.g. to provision hardware)
+   * @param params see constructor
+   * @param key option name
+   * @param def default when not configured
+   * @return configured value or default
+   */
+  protected static String getOption(String[] params, String key, String def) {
+    for (int i = 10; i < params.length; i++) {
+      if (params[i].startsWith(key + "="))
+        return params[i].substring(key.length() + 1);
+    }
+    return def;
+  }
+  
+  protected int getOption(String key, int def) {
+    String value = options.get(key);
+    try {
+      return value == null ? def : Integer.parseInt(value);
+    } catch (NumberFormatException ex) {
+      LOG.log(Level.WARNING, "{0}: invalid option {1}={2}", new Object[]{name, key, value});
+      return def;
+    }
+  }
+  
   public void setLast(StampedNV snv) {
     snvLast = snv;
   }
   
+  /**
+   * @return last accepted value, with swinging door the most recent measurement
+   * (accepted values lag up to delay behind)
+   */
   public StampedNV getLast() {
-    return snvLast;
+    StampedNV last = snvLast;
+    StampedNV sample = sdSample;
+    return sample != null && (last == null || sample.pTime > last.pTime) ? sample : last;
+  }
+  
+  @Override
+  public double getLastValue() {
+    StampedNV snv = getLast();
+    return snv != null && snv.value instanceof Number ? ((Number) snv.value).doubleValue() : Double.NaN;
+  }
+  
+  @Override
+  public long getLastTime() {
+    StampedNV snv = getLast();
+    return snv != null ? snv.pTime : 0;
+  }
+  
+  // consecutive failures, if counted by subclass
+  @Override
+  public int getFailCount() {
+    return 0;
   }
   
   // depends on subclass 
@@ -163,6 +245,10 @@ public abstract class Sensor {
   // report subclass
   public abstract String getType();
   
+  // release resources (e.g. open files), called on mainloop exit
+  public void close() {
+  }
+  
   public double calibrate(double value) {
     return value * a + b;
   }
@@ -206,10 +292,84 @@ public abstract class Sensor {
     return valid;
   }
   
+  /**
+   * @param snv new measurement
+   * @return value to be put into history or null
+   */
   protected StampedNV checked(StampedNV snv) {
+    if (check == FType.SWINGDOOR)
+      return swingDoor(snv);
     return isValid(snv) ? snv : null;
   }
 
+  /**
+   * Swinging door trending compression, delta is the error bound
+   * Doors are pivoting at last accepted value +/- delta and are opened up to each new value,
+   * when they get parallel (no straight line from last accepted value within delta of all
+   * values since) the preceeding (pending) value is accepted and becomes the new pivot.
+   * Without opening the current value is accepted after delay (timeout).
+   * Note: the accepted value is usually the pending one, aka its timestamp is about
+   * one cycle older than the current measurement.
+   * @param snv new measurement
+   * @return value to be put into history or null
+   */
+  private StampedNV swingDoor(StampedNV snv) {
+    if (snv == null || snv.value == null)
+      return null;    // failed measurement, keeps doors and pending value
+    sdSample = snv;
+    if (!(snv.value instanceof Number) || snvLast == null || !(snvLast.value instanceof Number)) {
+      sdPending = null;
+      return isValid(snv) ? snv : null;   // passed thru, aka start new segment
+    }
+    double x = ((Number) snv.value).doubleValue();
+    long dt = snv.pTime - snvLast.pTime;
+    if (dt <= 0)
+      return null;
+    double a = ((Number) snvLast.value).doubleValue();
+    double up = (x + delta - a) / dt;
+    double low = (x - delta - a) / dt;
+    if (sdPending == null) {
+      sdUpper = up;
+      sdLower = low;
+    } else {
+      sdUpper = Math.min(sdUpper, up);
+      sdLower = Math.max(sdLower, low);
+      if (sdLower > sdUpper) {
+        // doors opened, pending value starts new segment up to current one
+        StampedNV accepted = sdPending;
+        snvLast = accepted;
+        a = ((Number) accepted.value).doubleValue();
+        dt = snv.pTime - accepted.pTime;
+        sdUpper = (x + delta - a) / dt;
+        sdLower = (x - delta - a) / dt;
+        sdPending = snv;
+        return accepted;
+      }
+    }
+    if (dt > delay) {   // timeout, flush
+      snvLast = snv;
+      sdPending = null;
+      return snv;
+    }
+    sdPending = snv;
+    return null;
+  }
+
+  /**
+   * swinging door: accept pending value when no further measurement arrived within delay,
+   * called by mainloop (e.g. sensor failing or disabled after last value)
+   * @param now current time millis
+   * @return value to be put into history or null
+   */
+  public StampedNV flush(long now) {
+    if (sdPending == null || now - sdPending.pTime <= delay)
+      return null;
+    StampedNV accepted = sdPending;
+    snvLast = accepted;
+    sdPending = null;
+    return accepted;
+  }
+
   /**
    * 
    * @return single line configuration 
@@ -227,6 +387,7 @@ public abstract class Sensor {
       .append(b).append(SEP)
       .append(delta).append(SEP)
       .append(check);
+    options.forEach((k, v) -> sb.append(SEP).append(k).append('=').append(v));
     return sb.toString();
   }
 }
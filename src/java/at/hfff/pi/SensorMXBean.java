@@ -0,0 +1,37 @@
+package at.hfff.pi;
+
+/**
+ * JMX view of a sensor, registered as at.hfff.pi:type=Sensor,name=&lt;name&gt;
+ *
+ * @author horst
+ */
+public interface SensorMXBean {
+
+  String getName();
+
+  String getType();
+
+  String getUnit();
+
+  boolean isEnabled();
+
+  void setEnabled(boolean enabled);
+
+  /**
+   * @return last accepted value, NaN if none or not numeric
+   */
+  double getLastValue();
+
+  /**
+   * @return time of last accepted value (milliseconds), 0 if none
+   */
+  long getLastTime();
+
+  int getFailCount();
+
+  double getA();
+
+  double getB();
+
+  double getDelta();
+}
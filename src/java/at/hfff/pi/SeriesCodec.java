@@ -0,0 +1,303 @@
+package at.hfff.pi;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * Compressed time series format (Gorilla like, see Facebook's TSDB paper):
+ * entries are grouped by source, timestamps are stored as delta of delta
+ * and numeric values as XOR of the preceeding one, aka slowly changing signals
+ * need a few bits per sample instead of about 40 bytes of text.
+ * Series with non numeric values keep their values as strings.
+ * Layout: MAGIC, #series, per series: source, type, #entries, #bytes, bit stream[, strings]
+ * Used for compressed archives and the history snapshot (data.phs),
+ * main decodes files to the text format (see StampedNV.toString), e.g.
+ * java -cp PiHive.jar at.hfff.pi.SeriesCodec pihive2-200312-1200.phs &gt; archive.log
+ *
+ * @author horst
+ */
+public final class SeriesCodec {
+
+  private static final int MAGIC = 0x50485331;   // PHS1
+  private static final byte NUMERIC = 0;
+  private static final byte TEXT = 1;
+
+  private SeriesCodec() {
+  }
+
+  /**
+   * @param entries e.g. history copy, order within each source is kept
+   * @return encoded series
+   */
+  public static byte[] encode(Collection<StampedNV> entries) {
+    ByteArrayOutputStream bos = new ByteArrayOutputStream(entries.size() * 4 + 64);
+    try {
+      encode(entries, bos);
+    } catch (IOException ex) {
+      throw new IllegalStateException(ex);   // not by byte array
+    }
+    return bos.toByteArray();
+  }
+
+  /**
+   * @param entries e.g. history copy, order within each source is kept
+   * @param os target, not closed
+   * @throws IOException on write failure
+   */
+  public static void encode(Collection<StampedNV> entries, OutputStream os) throws IOException {
+    Map<String, List<StampedNV>> series = new LinkedHashMap<>();
+    entries.forEach((snv) -> series.computeIfAbsent(snv.source, (k) -> new ArrayList<>()).add(snv));
+    DataOutputStream dos = new DataOutputStream(os);
+    dos.writeInt(MAGIC);
+    dos.writeInt(series.size());
+    for (Map.Entry<String, List<StampedNV>> me : series.entrySet()) {
+      List<StampedNV> snvL = me.getValue();
+      boolean numeric = snvL.stream().allMatch((snv) -> snv.value instanceof Number);
+      BitWriter bw = new BitWriter();
+      long prevTime = 0;
+      long prevDelta = 0;
+      long prevBits = 0;
+      int prevLead = -1;    // no window yet
+      int prevTrail = 0;
+      for (int i = 0; i < snvL.size(); i++) {
+        StampedNV snv = snvL.get(i);
+        // timestamp
+        if (i == 0) {
+          bw.write(snv.pTime, 64);
+        } else {
+          long delta = snv.pTime - prevTime;
+          long dod = delta - prevDelta;
+          if (dod == 0) {
+            bw.write(0, 1);
+          } else if (dod >= -64 && dod < 64) {
+            bw.write(0b10, 2);
+            bw.write(dod, 7);
+          } else if (dod >= -256 && dod < 256) {
+            bw.write(0b110, 3);
+            bw.write(dod, 9);
+          } else if (dod >= -2048 && dod < 2048) {
+            bw.write(0b1110, 4);
+            bw.write(dod, 12);
+          } else {
+            bw.write(0b1111, 4);
+            bw.write(dod, 64);
+          }
+          prevDelta = delta;
+        }
+        prevTime = snv.pTime;
+        if (!numeric)
+          continue;
+        // value
+        long bits = Double.doubleToLongBits(((Number) snv.value).doubleValue());
+        if (i == 0) {
+          bw.write(bits, 64);
+        } else {
+          long xor = bits ^ prevBits;
+          if (xor == 0) {
+            bw.write(0, 1);
+          } else {
+            int lead = Math.min(Long.numberOfLeadingZeros(xor), 31);
+            int trail = Long.numberOfTrailingZeros(xor);
+            if (prevLead >= 0 && lead >= prevLead && trail >= prevTrail) {
+              // fits into preceeding window
+              bw.write(0b10, 2);
+              bw.write(xor >>> prevTrail, 64 - prevLead - prevTrail);
+            } else {
+              int length = 64 - lead - trail;
+              bw.write(0b11, 2);
+              bw.write(lead, 5);
+              bw.write(length & 63, 6);   // 64 stored as 0
+              bw.write(xor >>> trail, length);
+              prevLead = lead;
+              prevTrail = trail;
+            }
+          }
+        }
+        prevBits = bits;
+      }
+      byte[] data = bw.toByteArray();
+      dos.writeUTF(me.getKey());
+      dos.writeByte(numeric ? NUMERIC : TEXT);
+      dos.writeInt(snvL.size());
+      dos.writeInt(data.length);
+      dos.write(data);
+      if (!numeric) {
+        for (StampedNV snv : snvL)
+          dos.writeUTF(String.valueOf(snv.value));
+      }
+    }
+    dos.flush();
+  }
+
+  /**
+   * @param is encoded series, not closed
+   * @return entries sorted by time (and source), numeric values as Double
+   * @throws IOException on read failure or invalid format
+   */
+  public static List<StampedNV> decode(InputStream is) throws IOException {
+    return decode(is, (source) -> true);
+  }
+
+  /**
+   * @param is encoded series, not closed
+   * @param sources series to be decoded, others are skipped
+   * @return entries sorted by time (and source), numeric values as Double
+   * @throws IOException on read failure or invalid format
+   */
+  public static List<StampedNV> decode(InputStream is, Predicate<String> sources) throws IOException {
+    DataInputStream dis = new DataInputStream(is);
+    if (dis.readInt() != MAGIC)
+      throw new IOException("no series data");
+    List<StampedNV> snvL = new ArrayList<>();
+    int series = dis.readInt();
+    for (int s = 0; s < series; s++) {
+      String source = dis.readUTF();
+      byte type = dis.readByte();
+      int n = dis.readInt();
+      byte[] data = new byte[dis.readInt()];
+      dis.readFully(data);
+      if (!sources.test(source)) {
+        if (type == TEXT) {
+          for (int i = 0; i < n; i++)
+            dis.readUTF();
+        }
+        continue;
+      }
+      BitReader br = new BitReader(data);
+      int first = snvL.size();
+      long time = 0;
+      long delta = 0;
+      long bits = 0;
+      int lead = 0;
+      int trail = 0;
+      for (int i = 0; i < n; i++) {
+        if (i == 0) {
+          time = br.read(64);
+        } else {
+          long dod;
+          if (br.read(1) == 0)
+            dod = 0;
+          else if (br.read(1) == 0)
+            dod = br.readSigned(7);
+          else if (br.read(1) == 0)
+            dod = br.readSigned(9);
+          else if (br.read(1) == 0)
+            dod = br.readSigned(12);
+          else
+            dod = br.read(64);
+          delta += dod;
+          time += delta;
+        }
+        if (type == NUMERIC) {
+          if (i == 0) {
+            bits = br.read(64);
+          } else if (br.read(1) == 1) {
+            if (br.read(1) == 1) {
+              lead = (int) br.read(5);
+              int length = (int) br.read(6);
+              if (length == 0)
+                length = 64;
+              trail = 64 - lead - length;
+            }
+            bits ^= br.read(64 - lead - trail) << trail;
+          }
+          snvL.add(new StampedNV(time, source, Double.longBitsToDouble(bits)));
+        } else {
+          snvL.add(new StampedNV(time, source, null));
+        }
+      }
+      if (type == TEXT) {
+        for (int i = first; i < snvL.size(); i++)
+          snvL.get(i).value = dis.readUTF();
+      }
+    }
+    snvL.sort(Comparator.comparingLong((StampedNV snv) -> snv.pTime).thenComparing((snv) -> snv.source));  // as StampedNV.compareTo
+    return snvL;
+  }
+
+  /**
+   * decoder, prints entries of given files (or stdin) in text format
+   * @param args file names
+   */
+  public static void main(String[] args) {
+    PrintStream out = System.out;
+    try {
+      if (args.length == 0) {
+        decode(new BufferedInputStream(System.in)).forEach(out::println);
+      } else {
+        for (String file : args) {
+          try (InputStream is = new BufferedInputStream(new FileInputStream(file))) {
+            decode(is).forEach(out::println);
+          }
+        }
+      }
+    } catch (IOException ex) {
+      System.err.println("Decode failed: " + ex.getMessage());
+      System.exit(1);
+    }
+    out.flush();
+  }
+
+  // msb first
+  private static final class BitWriter {
+    private final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    private int current;
+    private int count;   // bits within current
+
+    private void write(long value, int length) {
+      for (int i = length - 1; i >= 0; i--) {
+        current = (current << 1) | (int) ((value >>> i) & 1);
+        if (++count == 8) {
+          bos.write(current);
+          current = 0;
+          count = 0;
+        }
+      }
+    }
+
+    private byte[] toByteArray() {
+      if (count > 0) {
+        bos.write(current << (8 - count));
+        current = 0;
+        count = 0;
+      }
+      return bos.toByteArray();
+    }
+  }
+
+  private static final class BitReader {
+    private final byte[] data;
+    private int pos;   // bit position
+
+    private BitReader(byte[] data) {
+      this.data = data;
+    }
+
+    private long read(int length) throws IOException {
+      if (pos + length > data.length * 8)
+        throw new IOException("series data truncated");
+      long value = 0;
+      for (int i = 0; i < length; i++, pos++)
+        value = (value << 1) | ((data[pos >>> 3] >>> (7 - (pos & 7))) & 1);
+      return value;
+    }
+
+    private long readSigned(int length) throws IOException {
+      return read(length) << (64 - length) >> (64 - length);
+    }
+  }
+}
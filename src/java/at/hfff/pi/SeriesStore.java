@@ -0,0 +1,231 @@
+package at.hfff.pi;
+
+import static at.hfff.pi.PiHive.LOG;
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.logging.Level;
+
+/**
+ * On-disk tier beyond the history window: one immutable partition per day within
+ * persistence directory store/, raw samples (yyyyMMdd.phs) and per source rollups (yyyyMMdd-10m.phs)
+ * with average (source name itself), minimum (name.min) and maximum (name.max) of 10 minute buckets,
+ * both in SeriesCodec format.
+ * Days are written once they ended and only if history holds them completely (see History.getComplete),
+ * aka no partial partition after expiry, eviction, thinning or restore of a trimmed snapshot,
+ * queries read one partition at a time, raw for windows up to a week, rollups for longer ones.
+ *
+ * @author horst
+ */
+public class SeriesStore {
+
+  static final String DIR = "store";
+  static final long DAY = 24 * 3600000L;
+  static final long BUCKET = 600000;   // rollup interval (ms)
+  private static final String RAW = ".phs";
+  private static final String ROLLUP = "-10m.phs";
+
+  private final File dir;
+  private final SimpleDateFormat df = new SimpleDateFormat("yyyyMMdd");
+  private final Set<Long> queued = ConcurrentHashMap.newKeySet();   // days collected (pending or handed to writer)
+  private final Map<Long, List<StampedNV>> pending = new ConcurrentHashMap<>();  // collected, not accepted by writer yet
+  private final Metrics.Counter written = Metrics.counter("store_partitions_written_total", "");
+  private final Metrics.Counter read = Metrics.counter("store_partitions_read_total", "");
+
+  /**
+   * @param persistDir store directory is created within
+   */
+  public SeriesStore(File persistDir) {
+    dir = new File(persistDir, DIR);
+    if (!dir.isDirectory() && !dir.mkdir())
+      LOG.log(Level.SEVERE, "Unable to create store {0}", dir.getAbsolutePath());
+    Metrics.gauge("store_bytes", "", () -> {
+      long size = 0;
+      File[] files = dir.listFiles();
+      if (files != null) {
+        for (File f : files)
+          size += f.length();
+      }
+      return size;
+    });
+  }
+
+  // local midnight of day containing time
+  private static long dayStart(long time) {
+    Calendar cal = Calendar.getInstance();
+    cal.setTimeInMillis(time);
+    cal.set(Calendar.HOUR_OF_DAY, 0);
+    cal.set(Calendar.MINUTE, 0);
+    cal.set(Calendar.SECOND, 0);
+    cal.set(Calendar.MILLISECOND, 0);
+    return cal.getTimeInMillis();
+  }
+
+  // next local midnight (days are 23 or 25 hours on dst change)
+  private static long nextDay(long day) {
+    return dayStart(day + DAY + 3 * 3600000L);
+  }
+
+  private File partition(long day, String suffix) {
+    synchronized (df) {
+      return new File(dir, df.format(day) + suffix);
+    }
+  }
+
+  /**
+   * write partitions of completed days not yet stored, done by store worker.
+   * Also called with history locked before eviction, only copying entries then as
+   * the worker never runs tasks in the caller's thread (rejected days are retried on next save)
+   * @param history source
+   * @return delay till next check (ms)
+   */
+  public long save(History history) {
+    collect(history);
+    new ArrayList<>(pending.keySet()).forEach((day) -> {   // rejected ones are put back
+      List<StampedNV> snvL = pending.remove(day);
+      if (snvL == null)
+        return;
+      Workers.supply(() -> {
+        write(day, snvL);
+        return day;
+      }, Workers.STORE).exceptionally((ex) -> {
+        LOG.log(Level.WARNING, "Store {0} deferred: {1}", new Object[]{partition(day, RAW).getName(), ex.getMessage()});
+        pending.put(day, snvL);
+        return day;
+      });
+    });
+    return 3600000;
+  }
+
+  // copy completed days not yet collected
+  private void collect(History history) {
+    long today;
+    List<Long> bounds = new ArrayList<>();       // day starts, followed by today (end)
+    List<List<StampedNV>> days = new ArrayList<>();  // null if stored already
+    synchronized (history) {
+      if (history.isEmpty())
+        return;
+      // day is over when newer entries exist, e.g. not while restoring
+      today = dayStart(Math.min(System.currentTimeMillis(), history.peekLast().pTime));
+      long complete = history.getComplete();
+      long day = dayStart(Math.max(history.peekFirst().pTime, complete));
+      if (day < complete)
+        day = nextDay(day);     // partially dropped
+      for (; day < today; day = nextDay(day)) {
+        bounds.add(day);
+        days.add(queued.contains(day) || partition(day, RAW).exists() ? null : new ArrayList<>());
+      }
+      bounds.add(today);
+      if (days.stream().allMatch((d) -> d == null))
+        return;
+      int i = 0;
+      for (StampedNV snv : history) {
+        long t = snv.pTime;
+        if (t < bounds.get(0) || t >= today)
+          continue;
+        if (t < bounds.get(i) || t >= bounds.get(i + 1)) {
+          // next day or entry out of order
+          i = 0;
+          while (t >= bounds.get(i + 1))
+            i++;
+        }
+        if (days.get(i) != null)
+          days.get(i).add(snv);
+      }
+    }
+    for (int i = 0; i < days.size(); i++) {
+      if (days.get(i) != null && !days.get(i).isEmpty() && queued.add(bounds.get(i)))
+        pending.put(bounds.get(i), days.get(i));
+    }
+  }
+
+  // rollups first, raw partition signals that day is done
+  private void write(long day, List<StampedNV> snvL) {
+    try {
+      write(partition(day, ROLLUP), rollup(snvL));
+      write(partition(day, RAW), snvL);
+      written.inc();
+      LOG.log(Level.INFO, "Stored {0} entries of {1}", new Object[]{snvL.size(), partition(day, RAW).getName()});
+    } catch (IOException ex) {
+      queued.remove(day);   // retried next time
+      LOG.log(Level.SEVERE, "Store {0} failed: {1}", new Object[]{partition(day, RAW), ex.getMessage()});
+    }
+  }
+
+  private static void write(File file, List<StampedNV> snvL) throws IOException {
+    File tmp = new File(file.getPath() + ".tmp");
+    try (OutputStream os = new FileOutputStream(tmp)) {
+      SeriesCodec.encode(snvL, os);
+    }
+    Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /**
+   * @param snvL one day
+   * @return average, min and max per source and bucket, numeric values only
+   */
+  static List<StampedNV> rollup(List<StampedNV> snvL) {
+    // source -> bucket start -> {sum, count, min, max}
+    Map<String, Map<Long, double[]>> acc = new LinkedHashMap<>();
+    snvL.forEach((snv) -> {
+      if (snv.value instanceof Number) {
+        double v = ((Number) snv.value).doubleValue();
+        long bucket = snv.pTime - Math.floorMod(snv.pTime, BUCKET);
+        double[] a = acc.computeIfAbsent(snv.source, (k) -> new LinkedHashMap<>())
+          .computeIfAbsent(bucket, (k) -> new double[]{0, 0, v, v});
+        a[0] += v;
+        a[1]++;
+        a[2] = Math.min(a[2], v);
+        a[3] = Math.max(a[3], v);
+      }
+    });
+    List<StampedNV> rollups = new ArrayList<>();
+    acc.forEach((source, buckets) -> buckets.forEach((bucket, a) -> {
+      rollups.add(new StampedNV(bucket, source, a[0] / a[1]));
+      rollups.add(new StampedNV(bucket, source + ".min", a[2]));
+      rollups.add(new StampedNV(bucket, source + ".max", a[3]));
+    }));
+    return rollups;
+  }
+
+  /**
+   * feed stored entries of a period, one partition decoded at a time
+   * @param sTime start (ms)
+   * @param eTime end, exclusive (ms)
+   * @param sources to be read, e.g. chart channels
+   * @param rollups true for bucket averages instead of raw samples
+   * @param consumer e.g. chart
+   */
+  public void query(long sTime, long eTime, Predicate<String> sources, boolean rollups, Consumer<StampedNV> consumer) {
+    for (long day = dayStart(sTime); day < eTime; day = nextDay(day)) {
+      File file = partition(day, rollups ? ROLLUP : RAW);
+      if (!file.canRead())
+        continue;
+      try (InputStream is = new BufferedInputStream(new FileInputStream(file))) {
+        SeriesCodec.decode(is, sources).forEach((snv) -> {
+          if (snv.pTime >= sTime && snv.pTime < eTime)
+            consumer.accept(snv);
+        });
+        read.inc();
+      } catch (IOException ex) {
+        LOG.log(Level.WARNING, "Partition {0} ignored: {1}", new Object[]{file, ex.getMessage()});
+      }
+    }
+  }
+}
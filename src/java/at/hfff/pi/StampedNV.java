@@ -21,6 +21,7 @@ public class StampedNV implements Comparable {
   long pTime; // history entry creation time (when logged)
   String source;
   Object value;
+  long seq;   // history sequence number, 0 if not (yet) in history
 
   StampedNV(String source) {
     this(source, Optional.empty());
@@ -42,6 +43,14 @@ public class StampedNV implements Comparable {
       .append('\t').append(source)
       .append('\t').append(value).toString();
   }
+  
+  /**
+   * @param withSeq append sequence number as 4th column (for clients using since)
+   * @return tab separated line
+   */
+  public String toString(boolean withSeq) {
+    return withSeq ? toString() + '\t' + seq : toString();
+  }
 
   @Override
   public int compareTo(Object o) {
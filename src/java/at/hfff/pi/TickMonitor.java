@@ -0,0 +1,99 @@
+package at.hfff.pi;
+
+import static at.hfff.pi.PiHive.LOG;
+import java.util.logging.Level;
+
+/**
+ * Mainloop jitter monitor: tick lateness and loop body duration as latency histograms,
+ * ticks exceeding the threshold are logged with the slowest activity (order or sensor) of the body.
+ * Used by mainloop thread only, except getActivity() and the histograms.
+ *
+ * @author horst
+ */
+public class TickMonitor {
+
+  private final long threshold;    // µs, late or long ticks to be flagged
+  private final LatencyHistogram lateHist = Metrics.latency("pihive_tick_late_us", "");
+  private final LatencyHistogram bodyHist = Metrics.latency("pihive_loop_body_us", "");
+  private final Metrics.Counter slowCnt = Metrics.counter("pihive_slow_ticks_total", "");
+
+  private volatile String activity = "idle";  // currently running
+  private long tickStart;
+  private long stepStart;
+  private String slowest = "";    // activity with longest duration within current tick
+  private long slowestTime;       // its duration (µs)
+  private String prevSlowest = "";
+  private long prevSlowestTime;
+
+  // log first slow tick and then only each LOGRED's one
+  private static final int LOGRED = 60;
+
+  /**
+   * @param threshold in milliseconds
+   */
+  public TickMonitor(long threshold) {
+    this.threshold = threshold * 1000;
+  }
+
+  /**
+   * tick started (wait finished)
+   * @param late µs behind schedule
+   */
+  public void begin(long late) {
+    tickStart = stepStart = System.nanoTime();
+    lateHist.record(late);
+    slowest = "";
+    slowestTime = 0;
+    activity = "tick";
+    if (late > threshold)
+      flag("late", late, prevSlowest, prevSlowestTime);
+  }
+
+  /**
+   * next activity within loop body starts (preceeding one done)
+   * @param name e.g. order or sensor name
+   */
+  public void step(String name) {
+    long now = System.nanoTime();
+    done(now);
+    stepStart = now;
+    activity = name;
+  }
+
+  /**
+   * loop body done
+   */
+  public void end() {
+    long now = System.nanoTime();
+    done(now);
+    long body = (now - tickStart) / 1000;
+    bodyHist.record(body);
+    activity = "idle";
+    if (body > threshold)
+      flag("long", body, slowest, slowestTime);
+    prevSlowest = slowest;
+    prevSlowestTime = slowestTime;
+  }
+
+  private void done(long now) {
+    long duration = (now - stepStart) / 1000;
+    if (duration > slowestTime) {
+      slowestTime = duration;
+      slowest = activity;
+    }
+  }
+
+  private void flag(String what, long time, String cause, long causeTime) {
+    slowCnt.inc();
+    if (slowCnt.get() % LOGRED == 1)
+      LOG.log(Level.WARNING, "Tick {0} {1} ms, slowest {2} {3} ms, slow ticks {4}, {5}, {6}"
+        , new Object[]{what, time / 1000, cause, causeTime / 1000, slowCnt.get(), lateHist, bodyHist});
+  }
+
+  /**
+   * @return activity currently running within mainloop
+   */
+  public String getActivity() {
+    return activity;
+  }
+}
@@ -27,17 +27,33 @@ cn                      5687  1 wire
 
 package at.hfff.pi;
 
-import com.pi4j.component.temperature.TemperatureSensor;
 import com.pi4j.io.w1.W1Device;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
 
 /**
- *
+ * Reading is done async, conversion is started for all sensors of the bus at once 
+ * (therm_bulk_read, if supported by kernel), otherwise the w1_slave files are read in parallel,
+ * aka loop latency does not depend on number of sensors 
  * @author horst
  */
 public class W1Sensor extends Sensor {
   private static final int MINUSECOUNT = 3;
-  private W1Device w1d;
+  private static final Logger LOG = PiHive.LOG;
+  
+  private static boolean bulkLogged = false;    // log bulk read availability once
+  
+  private W1Therm w1t;
   private int useCount = 0;  // to skip first measurement after turned on
+  private Optional<CompletableFuture<Double>> w1Data = Optional.empty();
   
   public W1Sensor(String[] params) {
     super(params);
@@ -49,28 +65,139 @@ public class W1Sensor extends Sensor {
    * @param w1d 
    */
   public void setDevice(W1Device w1d) {
-    this.w1d = w1d;
     setId(w1d.getId());
+    w1t = new W1Therm(W1Therm.SYSFS, w1d.getId());
     setEnabled(true);       // ok, sensor exists physically
   }
   
+  /**
+   * Start new measurement on all enabled W1Sensors not having a pending one.
+   * One bulk conversion is triggered for the whole bus, the sensors are read
+   * afterwards by the same acquisition task (the bus serializes reads anyway).
+   * Without bulk conversion each read does its own (750 ms, w1_therm releases the bus meanwhile),
+   * then the sensors are read by parallel acquisition tasks
+   * @param sensors all sensors, others than W1Sensor are ignored
+   */
+  public static void triggerAll(Collection<Sensor> sensors) {
+    List<W1Sensor> idle = sensors.stream()
+      .filter(s -> s instanceof W1Sensor && s.isEnabled())
+      .map(s -> (W1Sensor) s)
+      .filter(s -> !s.w1Data.isPresent())
+      .collect(Collectors.toList());
+    if (!idle.isEmpty()) {
+      List<CompletableFuture<Double>> reads = new ArrayList<>();
+      idle.forEach(s -> {
+        CompletableFuture<Double> cf = new CompletableFuture<>();
+        reads.add(cf);
+        s.w1Data = Optional.of(cf);
+      });
+      Workers.supply(() -> {
+        if (bulkConvert()) {
+          for (int i = 0; i < idle.size(); i++)
+            reads.get(i).complete(idle.get(i).read());
+        } else {
+          for (int i = 1; i < idle.size(); i++) {
+            CompletableFuture<Double> cf = reads.get(i);
+            Workers.supply(idle.get(i)::read, Workers.ACQUIRE).whenComplete((value, ex) -> {
+              if (ex != null)
+                cf.completeExceptionally(ex);
+              else
+                cf.complete(value);
+            });
+          }
+          reads.get(0).complete(idle.get(0).read());
+        }
+        return true;
+      }, Workers.ACQUIRE).exceptionally((ex) -> {
+        // overload (rejected), pending reads fail and are retriggered next time
+        reads.forEach((cf) -> cf.completeExceptionally(ex));
+        return false;
+      });
+    }
+  }
+  
+  /**
+   * trigger conversion of all sensors, blocks till conversion is done
+   * @return false if not supported, then each read will do its own conversion
+   */
+  private static boolean bulkConvert() {
+    boolean bulk = false;
+    try {
+      bulk = W1Therm.bulkConvert(W1Therm.SYSFS);
+    } catch (IOException ex) {
+      LOG.log(Level.WARNING, "Bulk conversion failed: {0}", ex.getMessage());
+    }
+    if (!bulkLogged) {
+      bulkLogged = true;
+      LOG.log(Level.INFO, "W1 bulk conversion {0}", bulk ? "used" : "not supported");
+    }
+    return bulk;
+  }
+  
+  /**
+   * @return temperature, NaN on crc failure
+   */
+  private double read() {
+    String lb = "sensor=\"" + getName() + "\"";
+    long start = System.nanoTime();
+    PiEvents.W1Read event = new PiEvents.W1Read();
+    event.begin();
+    event.sensor = getName();
+    event.value = Double.NaN;
+    try {
+      event.value = w1t.read();
+      if (Double.isNaN(event.value))
+        Metrics.counter("w1_failures_total", lb).inc();   // crc
+      return event.value;
+    } catch (IOException ex) {
+      Metrics.counter("w1_failures_total", lb).inc();
+      LOG.log(Level.FINE, "{0} read failed: {1}", new Object[]{w1t, ex.getMessage()});
+      return Double.NaN;
+    } finally {
+      event.commit();
+      Metrics.histogram("w1_read_ms", lb, 10, 25, 50, 100, 250, 500, 750, 1000, 2000).record((System.nanoTime() - start) / 1000000);
+    }
+  }
+  
   /**
    * W1 first measurement often fails (huge difference), therefor first measurements after Sensor create are skipped 
    * @return null if no data yet or faulty or  already consumed or not accepted
    */
   @Override
   public StampedNV getValue() {
-    double rawValue = ((TemperatureSensor)w1d).getTemperature();
-    if (useCount > MINUSECOUNT) {
-      StampedNV snv = new StampedNV(getName(), calibrate(rawValue));
-      if (isValid(snv))
-        return snv;
-    } else {
-      useCount++;
+    if (w1Data.isPresent()) {
+      CompletableFuture<Double> cf = w1Data.get();
+      if (cf.isDone()) {
+        w1Data = Optional.empty();
+        double rawValue;
+        try {
+          rawValue = cf.get();
+        } catch (InterruptedException | ExecutionException ex) {
+          LOG.log(Level.FINE, "{0} read failed: {1}", new Object[]{getName(), ex.getMessage()});
+          return null;
+        }
+        if (useCount > MINUSECOUNT) {
+          if (!Double.isNaN(rawValue))
+            return checked(new StampedNV(getName(), calibrate(rawValue)));
+        } else {
+          useCount++;
+        }
+      }
     }
     return null;
   }
 
+  @Override
+  public void close() {
+    if (w1t != null) {
+      try {
+        w1t.close();
+      } catch (IOException ex) {
+        LOG.log(Level.WARNING, "", ex);
+      }
+    }
+  }
+
   @Override
   public String getType() {
     return getClass().getName();
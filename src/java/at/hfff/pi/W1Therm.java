@@ -0,0 +1,134 @@
+package at.hfff.pi;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Lightweight DS18B20 reader using sysfs (w1_therm) directly instead of pi4j TmpDS18B20DeviceType
+ * The file channel is kept open, each read is done positional from start (sysfs
+ * recreates content then) into a reused buffer and parsed without String creation.
+ * Newer kernels provide attribute "temperature" (millidegrees, crc checked by kernel)
+ * otherwise w1_slave is used and its crc line checked:
+ * fb 00 ff ff 7f ff ff ff 03 : crc=03 YES
+ * fb 00 ff ff 7f ff ff ff 03 t=15687
+ * The base directory is a parameter to allow testing against a fake sysfs tree.
+ *
+ * @author horst
+ */
+public class W1Therm implements Closeable {
+
+  // default sysfs location of w1 slaves and bus masters
+  static final File SYSFS = new File("/sys/bus/w1/devices");
+
+  private static final String TEMPERATURE = "temperature";
+  private static final String W1SLAVE = "w1_slave";
+  private static final String BULKREAD = "therm_bulk_read";
+
+  private final File device;
+  private final boolean attrTemp;    // true if "temperature" attribute is used
+  private final ByteBuffer buf = ByteBuffer.allocate(128);  // w1_slave has 2 lines of 39 bytes
+  private FileChannel channel;       // opened on first read
+
+  /**
+   * @param base sysfs directory holding w1 devices, usually SYSFS
+   * @param id device id, e.g. 28-800000081063
+   */
+  public W1Therm(File base, String id) {
+    device = new File(base, id);
+    attrTemp = new File(device, TEMPERATURE).canRead();
+  }
+
+  /**
+   * Start conversion on all sensors of all bus masters (if supported by kernel)
+   * Blocks till conversion is done, succeeding reads return converted values without delay
+   * @param base sysfs directory holding w1 bus masters, usually SYSFS
+   * @return false if not supported, then each read does its own conversion
+   * @throws IOException if trigger write fails
+   */
+  public static boolean bulkConvert(File base) throws IOException {
+    boolean bulk = false;
+    File[] masters = base.listFiles((dir, name) -> name.startsWith("w1_bus_master"));
+    if (masters != null) {
+      for (File master : masters) {
+        File trigger = new File(master, BULKREAD);
+        if (trigger.canWrite()) {
+          try (FileWriter fw = new FileWriter(trigger)) {
+            fw.write("trigger\n");
+            bulk = true;
+          }
+        }
+      }
+    }
+    return bulk;
+  }
+
+  /**
+   * @return temperature in °C, NaN on crc failure
+   * @throws IOException on read errors (or crc failure reported by kernel when using temperature attribute)
+   */
+  public double read() throws IOException {
+    if (channel == null)
+      channel = FileChannel.open(new File(device, attrTemp ? TEMPERATURE : W1SLAVE).toPath(), StandardOpenOption.READ);
+    buf.clear();
+    int n, pos = 0;
+    while ((n = channel.read(buf, pos)) > 0)
+      pos += n;
+    buf.flip();
+    if (attrTemp)
+      return parseMilli(0) / 1000.0;
+    // first line ends with crc result YES|NO
+    int eol = indexOf((byte) '\n', 0);
+    if (eol < 3 || buf.get(eol - 3) != 'Y' || buf.get(eol - 2) != 'E' || buf.get(eol - 1) != 'S')
+      return Double.NaN;
+    // second line ends with t=<millidegrees>
+    for (int i = eol + 1; i < buf.limit() - 1; i++) {
+      if (buf.get(i) == 't' && buf.get(i + 1) == '=')
+        return parseMilli(i + 2) / 1000.0;
+    }
+    return Double.NaN;
+  }
+
+  private int indexOf(byte b, int from) {
+    for (int i = from; i < buf.limit(); i++) {
+      if (buf.get(i) == b)
+        return i;
+    }
+    return -1;
+  }
+
+  private int parseMilli(int from) throws IOException {
+    int i = from;
+    boolean neg = i < buf.limit() && buf.get(i) == '-';
+    if (neg)
+      i++;
+    int value = 0;
+    int digits = 0;
+    for (; i < buf.limit(); i++, digits++) {
+      byte c = buf.get(i);
+      if (c < '0' || c > '9')
+        break;
+      value = value * 10 + (c - '0');
+    }
+    if (digits == 0)
+      throw new IOException("Invalid content of " + device.getName());
+    return neg ? -value : value;
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (channel != null) {
+      channel.close();
+      channel = null;
+    }
+  }
+
+  @Override
+  public String toString() {
+    return device.getName() + '/' + (attrTemp ? TEMPERATURE : W1SLAVE);
+  }
+}
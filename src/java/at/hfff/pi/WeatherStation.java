@@ -1,15 +1,63 @@
 package at.hfff.pi;
 
+import static at.hfff.pi.PiHive.LOG;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
 
 /**
+ * Base of multichannel stations including async fetch layer:
+ * each attempt is limited by TIMEOUT, failed ones are retried with exponential backoff
+ * scheduled by a shared scheduler (no thread sleeps within pool), after BREAKER_FAILS
+ * consecutive failed fetches the circuit opens and fetches are skipped for BREAKER_OPEN.
  * @author horst
  */
 public abstract class WeatherStation {
   
+  // shared retry scheduler, only used to start attempts (fetch itself runs async)
+  private static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor((r) -> {
+    Thread t = new Thread(r, "WSRetry");
+    t.setDaemon(true);
+    return t;
+  });
+  
+  private static final int MAXATTEMPT = 4;      // per fetch
+  private static final long BACKOFF = 20000;    // first retry delay (ms), doubled for each further one
+  private static final long TIMEOUT = 60000;    // per attempt (ms), blocking fetchers keep their thread till done
+  private static final int BREAKER_FAILS = 3;   // consecutive failed fetches to open circuit
+  private static final long BREAKER_OPEN = 2 * 3600 * 1000;  // skip fetches, afterwards one trial
+  
+  private int failures = 0;       // consecutive failed fetches
+  private long openUntil = 0;     // circuit open till then
+  
+  // telemetry, see syscmd metrics
+  private final String lb = "station=\"" + getClass().getSimpleName() + "\"";
+  private final Histogram fetchHist = Metrics.histogram("weather_fetch_ms", lb, 100, 250, 500, 1000, 2500, 5000, 10000, 20000, 60000);
+  private final Metrics.Counter failCnt = Metrics.counter("weather_failures_total", lb);
+  private final Metrics.Counter retryCnt = Metrics.counter("weather_retries_total", lb);
+  private final Metrics.Counter skipCnt = Metrics.counter("weather_skipped_total", lb);
+  
+  /**
+   * blocking fetch, executed async
+   * @param <T> result
+   */
+  protected interface Fetcher<T> {
+    /**
+     * @return data, null if no new data (e.g. not modified)
+     * @throws IOException to be retried
+     */
+    T fetch() throws IOException;
+  }
+  
   // all sensors including those provided by station
   protected final Map<String, Sensor> sensorMap;
   
@@ -18,21 +66,139 @@ public abstract class WeatherStation {
   
   private static final String SEP = ", ";
   
+  // fetch interval (ms), OWM seems to update 2x/h, ZAMG has one hour data but duplicates are ignored anyway
+  protected static final long INTERVAL = 30 * 60 * 1000;
+  
+  private Runnable listener;   // notified when a fetch is completed
+  
   public abstract void trigger();
   public abstract boolean hasData();
   
+  /**
+   * @return delay till next trigger (ms), each station has its own cadence
+   */
+  public long getInterval() {
+    return INTERVAL;
+  }
+  
+  /**
+   * @return names of enabled channels provided by this station
+   */
+  public List<String> getChannels() {
+    return channels;
+  }
+  
+  /**
+   * @param listener notified (by fetching thread) when a fetch is completed, e.g. to wake up mainloop
+   */
+  public void setListener(Runnable listener) {
+    this.listener = listener;
+  }
+  
+  /**
+   * @return short name used as channel prefix on conflicts, e.g. OWM for OWMStation
+   */
+  public String getPrefix() {
+    return getClass().getSimpleName().replace("Station", "");
+  }
+  
   public WeatherStation(Map<String, Sensor> sensorMap) {
     this.sensorMap = sensorMap;
     channels = new ArrayList<>();
+    Metrics.gauge("weather_circuit_open", lb, () -> isOpen() ? 1 : 0);
+  }
+  
+  /**
+   * async fetch with retries
+   * @param <T> result
+   * @param fetcher blocking fetch
+   * @return future completed with data, null when no new data, all attempts failed or circuit open
+   */
+  protected <T> CompletableFuture<T> fetch(Fetcher<T> fetcher) {
+    CompletableFuture<T> result = new CompletableFuture<>();
+    if (isOpen()) {
+      skipCnt.inc();
+      LOG.log(Level.FINE, "{0} circuit open, fetch skipped", getClass().getSimpleName());
+      result.complete(null);
+    } else {
+      attempt(fetcher, result, 1, BACKOFF);
+    }
+    return result.whenComplete((data, ex) -> {
+      if (listener != null)
+        listener.run();
+    });
+  }
+  
+  private <T> void attempt(Fetcher<T> fetcher, CompletableFuture<T> result, int n, long backoff) {
+    PiEvents.WeatherFetch event = new PiEvents.WeatherFetch();
+    event.begin();
+    event.station = getClass().getSimpleName();
+    long start = System.nanoTime();
+    Workers.supply(() -> {
+      try {
+        return fetcher.fetch();
+      } catch (IOException ex) {
+        throw new CompletionException(ex);
+      }
+    }, Workers.FETCH).orTimeout(TIMEOUT, TimeUnit.MILLISECONDS).whenComplete((data, ex) -> {
+      fetchHist.record((System.nanoTime() - start) / 1000000);
+      event.success = ex == null;
+      event.commit();
+      if (ex == null) {
+        succeeded();
+        result.complete(data);
+        return;
+      }
+      Throwable cause = ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
+      failCnt.inc();
+      if (n < MAXATTEMPT) {
+        retryCnt.inc();
+        long delay = backoff + ThreadLocalRandom.current().nextLong(backoff / 10 + 1);  // jitter
+        LOG.log(Level.INFO, "{0} fetch failed: {1}, retry {2} in {3} s"
+          , new Object[]{getClass().getSimpleName(), cause.toString(), n, delay / 1000});
+        SCHEDULER.schedule(() -> attempt(fetcher, result, n + 1, backoff * 2), delay, TimeUnit.MILLISECONDS);
+      } else {
+        failed(cause);
+        result.complete(null);
+      }
+    });
+  }
+  
+  private synchronized boolean isOpen() {
+    return System.currentTimeMillis() < openUntil;
+  }
+  
+  private synchronized void succeeded() {
+    if (failures >= BREAKER_FAILS)
+      LOG.log(Level.INFO, "{0} circuit closed", getClass().getSimpleName());
+    failures = 0;
+  }
+  
+  private synchronized void failed(Throwable cause) {
+    failures++;
+    LOG.log(Level.SEVERE, "{0} fetch failed after {1} attempts: {2}"
+      , new Object[]{getClass().getSimpleName(), MAXATTEMPT, cause.toString()});
+    if (failures >= BREAKER_FAILS) {
+      openUntil = System.currentTimeMillis() + BREAKER_OPEN;
+      LOG.log(Level.WARNING, "{0} circuit opened after {1} failed fetches, next trial in {2} min"
+        , new Object[]{getClass().getSimpleName(), failures, BREAKER_OPEN / 60000});
+    }
   }
   
   protected void setup(NUD[] nudA, Class subClass) {
     // ensure all channels provided by this station are included as sensors
     for (NUD nud : nudA) {
-      String sn = nud.params[0];
-      Sensor s = sensorMap.get(sn);
+      String[] params = nud.params;
+      Sensor s = sensorMap.get(params[0]);
+      if (s != null && !s.getType().equals(subClass.getName())) {
+        // name used by other station or sensor, use own namespace
+        params = params.clone();
+        params[0] = getPrefix() + '_' + params[0];
+        s = sensorMap.get(params[0]);
+      }
+      String sn = params[0];
       if (s == null) {
-        s = new ExtSensor(nud.params, subClass);
+        s = new ExtSensor(params, subClass);
         s.setId(Integer.toString(nud.id));
         s.setEnabled(false);
         sensorMap.put(sn, s);
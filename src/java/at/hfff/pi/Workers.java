@@ -0,0 +1,102 @@
+package at.hfff.pi;
+
+import static at.hfff.pi.PiHive.LOG;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+
+/**
+ * Named bounded executors per workload class instead of the (tiny on a Pi) common ForkJoinPool,
+ * aka w1 reads do not wait for ftp uploads or weather retries.
+ * HX711 readout is not included, it has its own long lived reader thread (see HXSensor).
+ * Each pool starts all its threads before queueing (core equals max, idle ones time out),
+ * aka a hanging task (e.g. a weather fetch) does not block the tasks queued behind it.
+ * Queue and thread usage is exported as executor_* metrics, shutdown by PiContextListener.
+ *
+ * @author horst
+ */
+public final class Workers {
+
+  // sensor acquisition (w1 conversion and reads, parallel if no bulk conversion), skipped on overload (retried next second)
+  public static final ThreadPoolExecutor ACQUIRE = create("acquire", 4, 16, Thread.MAX_PRIORITY - 1, new ThreadPoolExecutor.AbortPolicy());
+  // weather station fetches, rejected attempts are handled like failed ones
+  public static final ThreadPoolExecutor FETCH = create("fetch", 2, 8, Thread.NORM_PRIORITY, new ThreadPoolExecutor.AbortPolicy());
+  // chart rendering for publishing, skipped on overload (next hour)
+  public static final ThreadPoolExecutor RENDER = create("render", 1, 2, Thread.MIN_PRIORITY, new ThreadPoolExecutor.AbortPolicy());
+  // ftp uploads, caller runs it when queue is full (backpressure)
+  public static final ThreadPoolExecutor PUBLISH = create("publish", 1, 4, Thread.MIN_PRIORITY, new ThreadPoolExecutor.CallerRunsPolicy());
+  // disk tier writes, never run by caller (may hold history lock), rejected days stay pending (see SeriesStore)
+  public static final ThreadPoolExecutor STORE = create("store", 1, 4, Thread.MIN_PRIORITY, new ThreadPoolExecutor.AbortPolicy());
+
+  private static final ThreadPoolExecutor[] ALL = {ACQUIRE, FETCH, RENDER, PUBLISH, STORE};
+
+  private Workers() {
+  }
+
+  private static ThreadPoolExecutor create(String name, int threads, int queue, int priority, RejectedExecutionHandler policy) {
+    String lb = "pool=\"" + name + "\"";
+    AtomicInteger cnt = new AtomicInteger();
+    ThreadFactory tf = (r) -> {
+      Thread t = new Thread(r, "pi-" + name + "-" + cnt.incrementAndGet());
+      t.setDaemon(true);
+      t.setPriority(priority);
+      return t;
+    };
+    Metrics.Counter rejected = Metrics.counter("executor_rejected_total", lb);
+    RejectedExecutionHandler counting = (r, executor) -> {
+      rejected.inc();
+      policy.rejectedExecution(r, executor);
+    };
+    // threads beyond core would be started on full queue only
+    ThreadPoolExecutor tpe = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(queue), tf, counting);
+    tpe.allowCoreThreadTimeOut(true);
+    Metrics.gauge("executor_queued", lb, () -> tpe.getQueue().size());
+    Metrics.gauge("executor_active", lb, () -> tpe.getActiveCount());
+    Metrics.gauge("executor_completed_total", lb, () -> tpe.getCompletedTaskCount());
+    return tpe;
+  }
+
+  /**
+   * like CompletableFuture.supplyAsync but rejection completes exceptionally instead of throwing
+   * @param <T> result
+   * @param supplier task
+   * @param executor one of the workers
+   * @return future
+   */
+  public static <T> CompletableFuture<T> supply(Supplier<T> supplier, Executor executor) {
+    try {
+      // CallerRunsPolicy silently discards when shut down, aka future would never complete
+      if (executor instanceof ThreadPoolExecutor && ((ThreadPoolExecutor) executor).isShutdown())
+        throw new RejectedExecutionException("shut down");
+      return CompletableFuture.supplyAsync(supplier, executor);
+    } catch (RejectedExecutionException ex) {
+      CompletableFuture<T> cf = new CompletableFuture<>();
+      cf.completeExceptionally(ex);
+      return cf;
+    }
+  }
+
+  /**
+   * orderly shutdown, pending tasks get some seconds to finish
+   */
+  public static void shutdown() {
+    for (ThreadPoolExecutor tpe : ALL)
+      tpe.shutdown();
+    try {
+      for (ThreadPoolExecutor tpe : ALL) {
+        if (!tpe.awaitTermination(5, TimeUnit.SECONDS))
+          LOG.log(Level.WARNING, "{0} tasks dropped on shutdown", tpe.shutdownNow().size());
+      }
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
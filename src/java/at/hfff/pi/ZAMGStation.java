@@ -12,14 +12,16 @@ import java.util.logging.Logger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import org.jsoup.Connection;
+import org.jsoup.Jsoup;
 import org.jsoup.helper.HttpConnection;
-import org.jsoup.nodes.Document;
 import org.jsoup.nodes.Element;
 
 /**
  * similar to OWMStation but allows to get more weather information by scanning
  * a ZAMG webpage for nearby location row Holder for multiple "sensors" without
  * need for calibration, .... see TAWES-Parser project for testing
+ * Page is fetched by conditional get (hourly data, fetched each 30 minutes),
+ * unchanged pages are not parsed at all, changed ones only partially.
  *
  * @author horst
  */
@@ -40,21 +42,34 @@ public class ZAMGStation extends WeatherStation {
 
   private static final String HREF = "https://www.zamg.ac.at";
   private static final String SREF = "/cms/de/wetter/wetterwerte-analysen/steiermark";
-  private static final Pattern DYNHEAD = Pattern.compile("dynPageTextHead .*");
+  private static final String DYNHEAD = "dynPageTextHead";
   private static final Pattern TIME = Pattern.compile("Aktuelle Messwerte der Wetterstationen von (\\d+) Uhr");
   private static final Pattern DYNROW = Pattern.compile("dynPageTableLine\\d");
   private static final String RATTR = "Fürstenfeld";
   // Problem: JSoup connection gets "Connection reset", set (default) useragent into request
   // https://www.whoishostingthis.com/tools/user-agent/
   //private static final String UA = "Mozilla/5.0 (Windows NT 6.3; WOW64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/45.0.2454.85 Safari/537.36";
-
-  // not reliable ??? (connection reset appears since may 8 2020) -> retry 
-  private static final int MAXRETRY = 3;
   
   // enable use of tail -f /var/log/tomcat8/catalina.out, used by PiEndpoint too
   private static final Logger LOG = PiHive.LOG;
 
-  private Optional<CompletableFuture<Document>> zamgData = Optional.empty();
+  private Optional<CompletableFuture<Measurement>> zamgData = Optional.empty();
+
+  // conditional get validators and hash of last body (fetches are sequential, see trigger)
+  private volatile String lastModified;
+  private volatile String etag;
+  private volatile int lastHash;
+
+  // header time and location row of a changed page
+  private static class Measurement {
+    final long time;
+    final Element row;
+
+    Measurement(long time, Element row) {
+      this.time = time;
+      this.row = row;
+    }
+  }
 
   public ZAMGStation(Map<String, Sensor> sensorMap) {
     super(sensorMap);
@@ -63,32 +78,114 @@ public class ZAMGStation extends WeatherStation {
 
   @Override
   public void trigger() {
-    zamgData = Optional.of(CompletableFuture.supplyAsync(() -> {
-      Connection cn = org.jsoup.Jsoup.connect(HREF).userAgent(HttpConnection.DEFAULT_UA).timeout(20000);
-      Document doc = null;
-      int rc = MAXRETRY;
-      do {
-        try {
-          doc = cn.url(HREF + SREF).get();
-          rc = 0;
-        } catch (IOException ex) { // e.g. java.net.UnknownHostException when routers nameservice fails
-          LOG.log(Level.SEVERE, "Data load from {0} failed: {1}", new Object[]{HREF + SREF, ex});
-          if (ex.getMessage().equals("Connection reset")) {
-            rc--;
-          } else
-            rc = 0;
-        }
-        if (rc > 0) try {
-          Thread.sleep(20000);
-        } catch (InterruptedException ex) {}
-      } while (rc > 0);
-      return doc;
-    }));
+    if (zamgData.isPresent() && !zamgData.get().isDone())
+      return;   // preceeding fetch still retrying
+    zamgData = Optional.of(fetch(this::load));
     LOG.log(Level.FINE, "ZAMG async called");
   }
 
   /**
-   * scan HTML Document
+   * conditional get, e.g. java.net.UnknownHostException when routers nameservice fails
+   * or "Connection reset" (seen since may 8 2020) are retried by fetch layer
+   * @return null if not modified
+   * @throws IOException on failure
+   */
+  private Measurement load() throws IOException {
+    Connection cn = Jsoup.connect(HREF + SREF).userAgent(HttpConnection.DEFAULT_UA)
+      .timeout(20000).ignoreHttpErrors(true);
+    if (lastModified != null)
+      cn.header("If-Modified-Since", lastModified);
+    if (etag != null)
+      cn.header("If-None-Match", etag);
+    Connection.Response res = cn.execute();
+    if (res.statusCode() == 304) {
+      LOG.log(Level.FINE, "ZAMG page not modified");
+      return null;
+    }
+    if (res.statusCode() != 200)
+      throw new IOException("Data load from " + HREF + SREF + " failed: " + res.statusCode() + " " + res.statusMessage());
+    String html = res.body();
+    if (html.hashCode() == lastHash) {
+      LOG.log(Level.FINE, "ZAMG page unchanged");   // server without validators
+      return null;
+    }
+    Measurement data = parse(html);
+    if (data != null) {
+      // remember validators of successfully parsed page only
+      lastModified = res.header("Last-Modified");
+      etag = res.header("ETag");
+      lastHash = html.hashCode();
+    }
+    return data;
+  }
+
+  /**
+   * selective parse, only the header holding the time and the location row
+   * are parsed as fragments, scanning stops after the location row
+   * @param html page
+   * @return null if time or location row not found
+   */
+  private static Measurement parse(String html) {
+    // get time
+    long time = Long.MIN_VALUE;
+    int pos = 0;
+    while (time == Long.MIN_VALUE && (pos = html.indexOf(DYNHEAD, pos)) >= 0) {
+      Element h2Elem = fragment(html, pos, "h2");
+      pos += DYNHEAD.length();
+      if (h2Elem == null)
+        continue;
+      Matcher getTime = TIME.matcher(h2Elem.text());
+      if (getTime.matches()) {
+        int hr = Integer.parseInt(getTime.group(1));
+        Calendar cal = Calendar.getInstance();
+        int hl = cal.get(Calendar.HOUR_OF_DAY);
+        cal.set(Calendar.MINUTE, 0);
+        cal.set(Calendar.SECOND, 0);
+        cal.set(Calendar.MILLISECOND, 0);
+        cal.set(Calendar.HOUR_OF_DAY, hr);
+
+        time = cal.getTimeInMillis();
+        if (hr - hl > 22) {
+          time -= 24 * 3600 * 1000; // yesterday
+        }
+        LOG.log(Level.FINE, " time: {0}", new Date(time));
+      }
+    }
+    if (time == Long.MIN_VALUE)
+      return null;    // no need to search for values when no time
+    while ((pos = html.indexOf(RATTR, pos)) >= 0) {
+      Element trElem = fragment(html, pos, "tr");
+      pos += RATTR.length();
+      if (trElem != null && DYNROW.matcher(trElem.className()).matches()) {
+        Element aElem = trElem.child(0).child(0);
+        LOG.log(Level.FINE, "A: {0}", aElem.text());
+        if (RATTR.equals(aElem.ownText()))
+          return new Measurement(time, trElem);
+      }
+    }
+    LOG.log(Level.WARNING, "Location {0} not found", RATTR);
+    return null;
+  }
+
+  /**
+   * @param html page
+   * @param pos position within element
+   * @param tag element tag
+   * @return parsed element enclosing pos, null if none
+   */
+  private static Element fragment(String html, int pos, String tag) {
+    int from = html.lastIndexOf("<" + tag, pos);
+    int to = html.indexOf("</" + tag + ">", pos);
+    if (from < 0 || to < 0)
+      return null;
+    String frag = html.substring(from, to + tag.length() + 3);
+    if (tag.equals("tr"))
+      frag = "<table>" + frag + "</table>";  // rows outside table are dropped by parser
+    return Jsoup.parseBodyFragment(frag).selectFirst(tag);
+  }
+
+  /**
+   * set values of location row
    *
    * @return true if successfull
    */
@@ -96,54 +193,25 @@ public class ZAMGStation extends WeatherStation {
   public boolean hasData() {
     if (zamgData.isPresent()) {
       LOG.log(Level.FINE, "ZAMG data present");
-      CompletableFuture<Document> cf = zamgData.get();
+      CompletableFuture<Measurement> cf = zamgData.get();
       if (cf.isDone()) {
         try {
-          Document doc = (Document) cf.get();
+          Measurement data = cf.get();
           zamgData = Optional.empty();
-          // get time
-          long time = Long.MIN_VALUE;
-          if (doc != null) {
-            for (Element h2Elem : doc.getElementsByAttributeValueMatching("class", DYNHEAD)) {
-              Matcher getTime = TIME.matcher(h2Elem.text());
-              if (getTime.matches()) {
-                int hr = Integer.parseInt(getTime.group(1));
-                Calendar cal = Calendar.getInstance();
-                int hl = cal.get(Calendar.HOUR_OF_DAY);
-                cal.set(Calendar.MINUTE, 0);
-                cal.set(Calendar.SECOND, 0);
-                cal.set(Calendar.MILLISECOND, 0);
-                cal.set(Calendar.HOUR_OF_DAY, hr);
-
-                time = cal.getTimeInMillis();
-                if (hr - hl > 22) {
-                  time -= 24 * 3600 * 1000; // yesterday
-                }
-                LOG.log(Level.FINE, " time: {0}", new Date(time));
-              }
-            }
-            if (time != Long.MIN_VALUE) {
-              // no need to search for values when no time
-              for (Element trElem : doc.getElementsByAttributeValueMatching("class", DYNROW)) {
-                Element aElem = trElem.child(0).child(0);
-                LOG.log(Level.FINE, "A: {0}", aElem.text());
-                if (RATTR.equals(aElem.ownText())) {
-                  for (String name : channels) {
-                    ExtSensor s = (ExtSensor) sensorMap.get(name);
-                    Element tdElem = trElem.child(Integer.parseInt(s.getId()));
-                    String val = tdElem.text();
-                    String[] flds = val.split(" |°");  // strip unit 
-                    // ATTENTION: Seen values without numeric value, unit only! -> ArrayIndexOutOfBoundsException
-                    try {
-                      s.setValue(new StampedNV(time, name, Double.parseDouble(flds[0])));
-                    } catch (ArrayIndexOutOfBoundsException | NumberFormatException fe) {
-                      LOG.log(Level.WARNING, "Unexpected table content {0} {1}", new Object[]{val, fe.getMessage()});
-                    }
-                  }
-                }
+          if (data != null) {   // null if failed or unchanged
+            for (String name : channels) {
+              ExtSensor s = (ExtSensor) sensorMap.get(name);
+              Element tdElem = data.row.child(Integer.parseInt(s.getId()));
+              String val = tdElem.text();
+              String[] flds = val.split(" |°");  // strip unit 
+              // ATTENTION: Seen values without numeric value, unit only! -> ArrayIndexOutOfBoundsException
+              try {
+                s.setValue(new StampedNV(data.time, name, Double.parseDouble(flds[0])));
+              } catch (ArrayIndexOutOfBoundsException | NumberFormatException fe) {
+                LOG.log(Level.WARNING, "Unexpected table content {0} {1}", new Object[]{val, fe.getMessage()});
               }
-              return true;
             }
+            return true;
           }
         } catch (InterruptedException | ExecutionException ex) {
           LOG.log(Level.SEVERE, "", ex);
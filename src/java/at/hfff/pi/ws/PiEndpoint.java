@@ -1,6 +1,7 @@
 package at.hfff.pi.ws;
 
 import static at.hfff.pi.PiHive.LOG;   // main class logger used
+import at.hfff.pi.Metrics;
 import at.hfff.pi.PiHive;
 import java.io.IOException;
 import java.nio.ByteBuffer;
@@ -29,14 +30,15 @@ public class PiEndpoint extends Endpoint {
     
     // no segmentation yet, SVG's shall be smaler
     session.setMaxTextMessageBufferSize(25000);
-    session.addMessageHandler(new TextHandler(of));
+    session.addMessageHandler(new TextHandler(session.getId(), of));
     session.addMessageHandler(new BinaryHandler(of));
 
     StringBuilder sb = new StringBuilder();
     // pi is instantiated (and configured) by servletcontextlistener
     PiHive pi = PiHive.getInstance();
+    Metrics.counter("ws_sessions_opened_total", "").inc();
     if (pi.isAlive()) {
-      pi.addClient(session.getId(), of);   
+      pi.addClient(session.getId(), of);   // sends snapshot of latest values
       sb.append("Pi session ").append(session.getId()).append(" ready");
     } else {
       sb.append("Pi mainloop not active, restart servlet!");
@@ -48,6 +50,7 @@ public class PiEndpoint extends Endpoint {
   @Override
   public void onClose(Session session, CloseReason closeReason) {
     PiHive.getInstance().removeClient(session.getId());
+    Metrics.counter("ws_sessions_closed_total", "").inc();
     LOG.log(Level.FINE, "Session {0} closed due to {1}", new Object[]{session.getId(), closeReason.getReasonPhrase()});
   }
 
@@ -59,6 +62,7 @@ public class PiEndpoint extends Endpoint {
   @Override
   public void onError(Session session, Throwable thr) {
     PiHive.getInstance().removeClient(session.getId());
+    Metrics.counter("ws_errors_total", "").inc();
     LOG.log(Level.FINE, "Session " + session.getId() + " error: ", thr);
   }
 
@@ -67,9 +71,11 @@ public class PiEndpoint extends Endpoint {
    */
   private static class TextHandler implements MessageHandler.Whole<String> {
 
+    private final String id;
     private final OutputFeeder of;
 
-    private TextHandler(OutputFeeder of) {
+    private TextHandler(String id, OutputFeeder of) {
+      this.id = id;
       this.of = of;
     }
 
@@ -96,6 +102,9 @@ public class PiEndpoint extends Endpoint {
           case "getvar": // get internal variable
             sb.append(pi.getValue(cmdA[1]));
             break;
+          case "since": // replay entries after sequence number (-1: none), then live push with sequence numbers
+            pi.since(id, of, Long.parseLong(cmdA[1]));
+            break;
           case "stop": // force mainloop exit (experimental)
             pi.terminate();
             sb.append("stop is pure experimental, use servlet stop instead");
@@ -182,6 +191,7 @@ public class PiEndpoint extends Endpoint {
         // broke (and onClose will be called), so we don't try to send
         // other messages.
         LOG.log(Level.WARNING, "Send failed", sr.getException());
+        Metrics.counter("ws_send_failures_total", "").inc();
         // As a precaution, we close the session (e.g. if a send timeout occured).
         // TODO: session.close() blocks, while this handler shouldn't block.
         // Ideally, there should be some abort() method that cancels the
@@ -0,0 +1,51 @@
+package at.hfff.pi;
+
+import java.io.File;
+import java.net.URI;
+import java.text.SimpleDateFormat;
+import java.util.HashSet;
+import java.util.List;
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+
+/**
+ * Peer message handling without websocket connection
+ *
+ * @author horst
+ */
+public class AggregatorTest {
+
+  private final SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");  // see StampedNV.SDF
+
+  private String line(long time, String source, double value) {
+    return sdf.format(time) + '\t' + source + '\t' + value;
+  }
+
+  /**
+   * more live entries during backfill than the recent dedup keeps, each entry shall be queued once
+   */
+  @Test
+  public void backfillWithManyLiveEntries() throws Exception {
+    File cfg = File.createTempFile("peers", ".cfg");
+    cfg.deleteOnExit();
+    Aggregator aggregator = new Aggregator(cfg, new History(), () -> {});
+    Aggregator.Peer peer = aggregator.new Peer("p", new URI("ws://localhost/PiHive/piautomation"));
+    long start = System.currentTimeMillis() - 3600000;
+    int older = 3000;   // in page only
+    int live = 6000;    // live and in page
+    long seq = 1000;
+    // live push (subscribed before backfill request)
+    for (int i = 0; i < live; i++)
+      peer.onMessage(line(start + (older + i) * 100L, "WT", i) + '\t' + (seq + older + i));
+    // single page holding all of them
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < older + live; i++)
+      sb.append(line(start + i * 100L, "WT", i - older)).append('\n');
+    sb.append(History.PAGE).append('\t').append(seq + older + live).append('\t').append(older + live);
+    peer.onMessage(sb.toString());
+    List<StampedNV> received = aggregator.drain();
+    aggregator.close();
+    assertEquals(older + live, received.size());
+    assertEquals(older + live, new HashSet<>(received).size());
+  }
+}
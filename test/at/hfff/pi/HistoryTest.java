@@ -0,0 +1,41 @@
+package at.hfff.pi;
+
+import java.util.ArrayList;
+import java.util.List;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Time order and latest values with peer backfill merged into local entries
+ *
+ * @author horst
+ */
+public class HistoryTest {
+
+  /**
+   * backfill overlapping local entries is merged in time order, latest stays with the newest value
+   */
+  @Test
+  public void mergeBackfill() {
+    History history = new History();
+    long start = System.currentTimeMillis() - 3600000;
+    for (int i = 0; i < 10; i++)
+      history.addLast(new StampedNV(start + 1000 + i * 1000L, "WT", i));
+    List<StampedNV> backfill = new ArrayList<>();
+    for (int i = 0; i < 20; i++)
+      backfill.add(new StampedNV(start + (19 - i) * 1000L, "WT", 100 + i));
+    history.merge(backfill);
+    assertEquals(30, history.size());
+    long last = 0;
+    for (StampedNV snv : history) {
+      assertTrue(snv.pTime >= last);
+      last = snv.pTime;
+    }
+    assertEquals(start + 19000, history.getLatest("WT").pTime);
+    // older local entry does not replace it
+    history.addLast(new StampedNV(start + 10500, "WT", 200));
+    assertEquals(100, history.getLatest("WT").value);
+    assertEquals(31, history.size());
+  }
+}
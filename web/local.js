@@ -5,6 +5,7 @@
 var ws = null;
 var logging = false;
 var mode = 0;
+var lastSeq = -1;  // sequence number of last received entry, resumed on reconnect (since)
 
 function connect() {
   var target = 'ws://' + window.location.host + '/PiHive/piautomation';
@@ -17,15 +18,29 @@ function connect() {
     return;
   }
   ws.onopen = function () {
-    send('syscmd loglevel');
-    send('syscmd hostname');  // servers hostname (=== pihive[n])
+    // hostname, loglevel and latest values are sent by server as snapshot
+    if (lastSeq >= 0)
+      send('since ' + lastSeq); // reconnected, missed entries
   };
   ws.onmessage = function (event) {
     var msg = event.data;
     // single line messages are used as setters (name == target), commands (e.g. reset)
     //TODO: more message types beside x: y and anything else
-    var nv = msg.split('\t');
-    if (nv.length === 3) {
+    var rows = msg.split('\n');
+    var nv = rows[0].split('\t');
+    if (nv.length === 4 && rows.length > 1) {
+      // snapshot or since reply (with sequence numbers) only update the UI objects
+      for (var i = 0; i < rows.length; i++) {
+        nv = rows[i].split('\t');
+        if (nv.length === 4) {
+          lastSeq = Math.max(lastSeq, Number(nv[3]));
+          setter(nv[1], nv[2]);
+        }
+      }
+      msg = 'Info: ' + rows.length + ' values received';
+    } else if (rows.length === 1 && (nv.length === 3 || nv.length === 4)) {
+      if (nv.length === 4)
+        lastSeq = Math.max(lastSeq, Number(nv[3]));
       var target = nv[1];
       var value = nv[2];
       // use chrome developer tool to dedect errors
@@ -34,21 +49,11 @@ function connect() {
         log('Received: ' + target + ' ' + value);
       if (target === "reset") {
         msg =" \n" + msg;  // enforce console clear
-      } else if (target === "hostname") {
-        var title = document.getElementById('title');
-        title.innerHTML = value.replace("pihive", "PiHive ");
        } else if (target === "archive" || target === 'publish') {
         exportrep(target, value);
         msg = ""; 
       } else {
-        // direct value attribute setting of named html object
-        var elem = document.getElementById(target);
-        if (elem !== null) {
-          if (elem.type === 'checkbox')
-            elem.checked = value === '0'; // only within reloaded history 0.0 appears
-          else 
-            elem.value = value;
-        }
+        setter(target, value);
       }
     }    
     if (msg.length > 0)
@@ -56,8 +61,25 @@ function connect() {
   };
   ws.onclose = function (event) {
     log('Info: WebSocket connection closed, Code: ' + event.code + (event.reason === "" ? "" : ", Reason: " + event.reason));
+    if (ws === this)  // not closed by disconnect, e.g. network change, resume
+      setTimeout(connect, 5000);
   };
 }
+function setter(target, value) {
+  if (target === "hostname") {
+    var title = document.getElementById('title');
+    title.innerHTML = value.replace("pihive", "PiHive ");
+    return;
+  }
+  // direct value attribute setting of named html object
+  var elem = document.getElementById(target);
+  if (elem !== null) {
+    if (elem.type === 'checkbox')
+      elem.checked = value === '0'; // only within reloaded history 0.0 appears
+    else 
+      elem.value = value;
+  }
+}
 function disconnect() {
   if (ws !== null) {
     ws.close();